@@ -0,0 +1,122 @@
+package com.louisnard.argps;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.louisnard.argps.model.database.ARDbHelper;
+import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.services.PointTileCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Micro-benchmark of {@link ARDbHelper} query latency.<br>
+ * Compares the long-lived connection with reopening the database for every query, as was done before the connection was kept open, and with the {@link PointTileCache} absorbing GPS jitter.
+ * Results are written to the log with the {@link #TAG} tag.<br>
+ * Runs on a dedicated database, so that the user points are left untouched.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class ARDbHelperBenchmark {
+
+    // Tag
+    private static final String TAG = ARDbHelperBenchmark.class.getSimpleName();
+
+    // Benchmark parameters
+    private static final int POINTS_NUMBER = 20000;
+    private static final int QUERIES_NUMBER = 50;
+    private static final int WARM_UP_QUERIES_NUMBER = 5;
+    private static final int SEARCH_DISTANCE = 10000;
+    private static final String DATABASE_NAME = "benchmark.db";
+
+    private Context mContext;
+    private ARDbHelper mDbHelper;
+    private Location mLocation;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext().getApplicationContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = ARDbHelper.newInstance(mContext, DATABASE_NAME);
+        // Random points in the Alps around Grenoble
+        final Random random = new Random(42);
+        final List<Point> points = new ArrayList<>(POINTS_NUMBER);
+        for (int i = 0; i < POINTS_NUMBER; i++) {
+            points.add(new Point("Point " + i, "Benchmark point " + i, 44 + 2 * random.nextDouble(), 5 + 2 * random.nextDouble(), random.nextInt(4800)));
+        }
+        mDbHelper.addPoints(points);
+        mLocation = new Location("");
+        mLocation.setLatitude(45.1916626);
+        mLocation.setLongitude(5.7385538);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Measures the average latency of {@link ARDbHelper#getPointsAround(Location, int, PointStore)} with and without reopening the database for every query,
+     * then of {@link PointTileCache#getPointsAround(double, double, int, PointStore)} around a jittering location.
+     */
+    @Test
+    public void benchmark_getPointsAround() {
+        final PointStore pointStore = new PointStore();
+
+        // Before: the database is closed after every query, and reopened by the next one
+        for (int i = 0; i < WARM_UP_QUERIES_NUMBER; i++) {
+            mDbHelper.getPointsAround(mLocation, SEARCH_DISTANCE, pointStore);
+            mDbHelper.close();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES_NUMBER; i++) {
+            mDbHelper.getPointsAround(mLocation, SEARCH_DISTANCE, pointStore);
+            mDbHelper.close();
+        }
+        final double reopeningLatency = (System.nanoTime() - start) / 1e6 / QUERIES_NUMBER;
+        final int reopeningCount = pointStore.size();
+
+        // After: the long-lived connection is kept open
+        mDbHelper.open();
+        for (int i = 0; i < WARM_UP_QUERIES_NUMBER; i++) {
+            mDbHelper.getPointsAround(mLocation, SEARCH_DISTANCE, pointStore);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES_NUMBER; i++) {
+            mDbHelper.getPointsAround(mLocation, SEARCH_DISTANCE, pointStore);
+        }
+        final double longLivedLatency = (System.nanoTime() - start) / 1e6 / QUERIES_NUMBER;
+        assertEquals(reopeningCount, pointStore.size());
+
+        // Cached: the location jitters by a few meters around the same spot, and only the first query loads tiles from the database
+        final PointTileCache pointTileCache = new PointTileCache(mDbHelper, POINTS_NUMBER);
+        final Random random = new Random(42);
+        pointTileCache.getPointsAround(mLocation.getLatitude(), mLocation.getLongitude(), SEARCH_DISTANCE, pointStore);
+        final long misses = pointTileCache.getMisses();
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES_NUMBER; i++) {
+            pointTileCache.getPointsAround(mLocation.getLatitude() + (random.nextDouble() - 0.5) * 0.0002,
+                    mLocation.getLongitude() + (random.nextDouble() - 0.5) * 0.0002, SEARCH_DISTANCE, pointStore);
+        }
+        final double cachedLatency = (System.nanoTime() - start) / 1e6 / QUERIES_NUMBER;
+        assertEquals(misses, pointTileCache.getMisses());
+
+        Log.i(TAG, "getPointsAround() returning " + pointStore.size() + " of " + POINTS_NUMBER + " points: "
+                + String.format("%.2f", reopeningLatency) + " ms per query when reopening the database, "
+                + String.format("%.2f", longLivedLatency) + " ms per query with the long-lived connection, "
+                + String.format("%.2f", cachedLatency) + " ms per query through the tile cache");
+    }
+}
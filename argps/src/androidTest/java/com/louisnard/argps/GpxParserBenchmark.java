@@ -0,0 +1,112 @@
+package com.louisnard.argps;
+
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.services.ParallelGpxParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Micro-benchmark of the {@link ParallelGpxParser} speed-up across thread counts.<br>
+ * A single thread parses the file sequentially, like the original GPX parser.
+ * Results are written to the log with the {@link #TAG} tag.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class GpxParserBenchmark {
+
+    // Tag
+    private static final String TAG = GpxParserBenchmark.class.getSimpleName();
+
+    // Benchmark parameters
+    private static final int POINTS_NUMBER = 200000;
+    private static final int RUNS_NUMBER = 3;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        // Random waypoints in the Alps around Grenoble, like an OSM export
+        mFile = File.createTempFile("benchmark", ".gpx", InstrumentationRegistry.getTargetContext().getCacheDir());
+        final Random random = new Random(42);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx version=\"1.1\" creator=\"benchmark\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+            for (int i = 0; i < POINTS_NUMBER; i++) {
+                writer.write(String.format(Locale.US, "<wpt lat=\"%.7f\" lon=\"%.7f\"><ele>%d</ele><name>Point %d</name><desc>Benchmark point %d</desc></wpt>\n",
+                        44 + 2 * random.nextDouble(), 5 + 2 * random.nextDouble(), random.nextInt(4800), i, i));
+            }
+            writer.write("</gpx>\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * Measures the average duration of {@link ParallelGpxParser#parse(FileInputStream, int)} with 1, 2, 4 and all available threads, and checks that the points are the same and in file order.
+     */
+    @Test
+    public void benchmark_parse() throws Exception {
+        final SortedSet<Integer> threadsNumbers = new TreeSet<>();
+        threadsNumbers.add(1);
+        threadsNumbers.add(2);
+        threadsNumbers.add(4);
+        threadsNumbers.add(Runtime.getRuntime().availableProcessors());
+
+        final StringBuilder results = new StringBuilder();
+        double sequentialDuration = 0;
+        for (int threadsNumber : threadsNumbers) {
+            // Warm up
+            List<Point> points = parse(threadsNumber);
+            final long start = System.nanoTime();
+            for (int i = 0; i < RUNS_NUMBER; i++) {
+                points = parse(threadsNumber);
+            }
+            final double duration = (System.nanoTime() - start) / 1e6 / RUNS_NUMBER;
+            if (threadsNumber == 1) {
+                sequentialDuration = duration;
+            }
+
+            assertEquals(POINTS_NUMBER, points.size());
+            assertEquals("Point 0", points.get(0).getName());
+            assertEquals("Point " + (POINTS_NUMBER / 2), points.get(POINTS_NUMBER / 2).getName());
+            assertEquals("Point " + (POINTS_NUMBER - 1), points.get(POINTS_NUMBER - 1).getName());
+            results.append(String.format(Locale.US, "\n%d threads: %.0f ms, speed-up x%.2f", threadsNumber, duration, sequentialDuration / duration));
+        }
+        Log.i(TAG, "Parsing " + POINTS_NUMBER + " points from " + mFile.length() / 1024 + " KB:" + results);
+    }
+
+    private List<Point> parse(int threadsNumber) throws Exception {
+        final FileInputStream inputStream = new FileInputStream(mFile);
+        try {
+            return ParallelGpxParser.parse(inputStream, threadsNumber);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.view.MenuItem;
 
 import com.louisnard.argps.R;
 import com.louisnard.argps.fragments.AugmentedRealityFragment;
+import com.louisnard.argps.model.database.ARDbHelper;
 
 /**
  * Augmented reality {@link AppCompatActivity} showing a {@link AugmentedRealityFragment}.<br>
@@ -25,6 +26,9 @@ public class AugmentedRealityActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Open the database connection kept for the application lifetime, in the background
+        ARDbHelper.getInstance(getApplicationContext()).openAsynchronously();
+
         // Set layout
         setContentView(R.layout.activity_toolbar_simple_fragment);
 
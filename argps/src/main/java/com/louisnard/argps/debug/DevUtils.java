@@ -3,6 +3,7 @@ package com.louisnard.argps.debug;
 import android.Manifest;
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -28,35 +29,47 @@ public class DevUtils {
     public static final String TAG = DevUtils.class.getSimpleName();
 
     /**
-     * Copies the current application database to the external storage.
+     * Copies the current application database to the external storage, on a background thread.
      * If not granted already, the function will ask for WRITE_EXTERNAL_STORAGE permission et will need to be called again once the permission granted.
      * @param activity the calling activity.
      * @param databaseName the name of the database to copy.
-     * @return <b>true</b> if the copy has succeeded. <b>false</b> otherwise.
+     * @return <b>true</b> if the copy has started. <b>false</b> otherwise.
      */
-    public static boolean exportDatabaseToExternalStorage(Activity activity, String databaseName) {
+    public static boolean exportDatabaseToExternalStorage(Activity activity, final String databaseName) {
         // Check for external storage write permission
         if (ContextCompat.checkSelfPermission(activity, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
             ActivityCompat.requestPermissions(activity, new String[] { Manifest.permission.WRITE_EXTERNAL_STORAGE }, 0);
-        } else {
-            // If external storage write permission has been granted
-            try {
-                File currentDb = activity.getDatabasePath(databaseName);
-                File externalStoragePath = Environment.getExternalStorageDirectory();
-                File backupDb = new File(externalStoragePath, "backup_" + databaseName);
-                if (currentDb.exists()) {
-                    FileChannel src = new FileInputStream(currentDb).getChannel();
-                    FileChannel dst = new FileOutputStream(backupDb).getChannel();
-                    dst.transferFrom(src, 0, src.size());
-                    src.close();
-                    dst.close();
-                    if (BuildConfig.DEBUG) Log.d(TAG, "Database copied to: " + backupDb.toString());
-                    return true;
+            return false;
+        }
+        // If external storage write permission has been granted
+        final File currentDb = activity.getDatabasePath(databaseName);
+        if (!currentDb.exists()) {
+            return false;
+        }
+        // The copy takes as long as the database is large: keep it off the main thread
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File externalStoragePath = Environment.getExternalStorageDirectory();
+                    // Also copy the write-ahead log, which holds the latest changes not yet checkpointed into the database file
+                    for (String suffix : new String[] {"", "-wal"}) {
+                        File file = new File(currentDb.getPath() + suffix);
+                        if (file.exists()) {
+                            File backupFile = new File(externalStoragePath, "backup_" + databaseName + suffix);
+                            FileChannel src = new FileInputStream(file).getChannel();
+                            FileChannel dst = new FileOutputStream(backupFile).getChannel();
+                            dst.transferFrom(src, 0, src.size());
+                            src.close();
+                            dst.close();
+                            if (BuildConfig.DEBUG) Log.d(TAG, "Database file copied to: " + backupFile.toString());
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
-        }
-        return false;
+        });
+        return true;
     }
 }
@@ -23,14 +23,17 @@ import com.louisnard.argps.R;
 import com.louisnard.argps.debug.DevUtils;
 import com.louisnard.argps.model.Utils;
 import com.louisnard.argps.model.database.ARDbHelper;
+import com.louisnard.argps.model.database.BinaryPointFile;
+import com.louisnard.argps.model.database.PointSource;
 import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointsScene;
 import com.louisnard.argps.model.services.Compass;
-import com.louisnard.argps.model.services.PointService;
+import com.louisnard.argps.model.services.GeoKernel;
+import com.louisnard.argps.model.services.PointTileCache;
+import com.louisnard.argps.model.services.PointsSceneLoader;
 import com.louisnard.argps.views.CompassView;
 import com.louisnard.argps.views.PointsView;
 
-import java.util.List;
-
 /**
  * Fragment showing the points around the user location using augmented reality over a camera preview.<br>
  *
@@ -38,7 +41,7 @@ import java.util.List;
  *
  * @author Alexandre Louisnard
  */
-public class AugmentedRealityFragment extends CameraPreviewFragment implements LocationListener, Compass.CompassListener {
+public class AugmentedRealityFragment extends CameraPreviewFragment implements LocationListener, Compass.CompassListener, ARDbHelper.OnPointsChangedListener, PointsSceneLoader.PointsSceneLoaderListener {
 
     // TODO: use this library to build "Mountain Peaks - France"
     // TODO: solve crash bug with camera lock opening
@@ -63,6 +66,12 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
     private static final int MIN_DISTANCE_DIFFERENCE_BETWEEN_DATABASE_RELOADS = 500;
     // The maximum distance to search and display points around the user's location, in meters
     private static final int MAX_RADIUS_DISTANCE_TO_SEARCH_POINTS_AROUND = 10000;
+    // The maximum number of points kept in the tile cache
+    private static final int MAX_CACHED_TILE_POINTS = 100000;
+    // How far ahead in time the user location is predicted to prefetch the points, in milliseconds
+    private static final long PREFETCH_PREDICTION_TIME = 60000;
+    // The minimum speed of the user to prefetch the points ahead, in meters per second
+    private static final float MIN_SPEED_TO_PREFETCH_POINTS = 1;
     // The minimum time interval between GPS location updates, in milliseconds
     private static final long MIN_TIME_INTERVAL_BETWEEN_LOCATION_UPDATES = 5000;
     // The maximum age of a location update from the system to be considered as still valid (in order to avoid working with old positions), in milliseconds
@@ -82,7 +91,11 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
     // Points
     private Point mUserLocationPoint;
     private Location mUserLocationAtLastDbReading;
-    private List<Point> mPoints;
+    // Created in onCreate(), on the main thread, before any OnPointsChangedListener callback can clear it
+    private PointTileCache mPointTileCache;
+    private boolean mPointsLoaded;
+    // Loads the points and computes their relative geometry in the background
+    private PointsSceneLoader mPointsSceneLoader;
 
     // Views
     private PointsView mPointsView;
@@ -106,6 +119,9 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Points
+        mPointTileCache = new PointTileCache(getPointSource(), MAX_CACHED_TILE_POINTS);
+
         mHasPermissions = Utils.hasPermissions(getContext(), REQUIRED_PERMISSIONS);
 
         // Check permissions
@@ -152,6 +168,9 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
             // Check GPS status
             updateGpsStatus();
 
+            // Points changes
+            ARDbHelper.getInstance(getActivity().getApplicationContext()).addOnPointsChangedListener(this);
+
             // Dump database for debug use only
             if (BuildConfig.DEBUG) {
                 DevUtils.exportDatabaseToExternalStorage(getActivity(), ARDbHelper.getDbName());
@@ -173,6 +192,8 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
             // Stop GPS updated checks and listener
             mCheckGpsHandler.removeCallbacks(mCheckGpsRunnable);
             mLocationManager.removeUpdates(this);
+            getPointsSceneLoader().cancel();
+            ARDbHelper.getInstance(getActivity().getApplicationContext()).removeOnPointsChangedListener(this);
         }
 
         super.onPause();
@@ -220,29 +241,93 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
 
         // Check the location validity
         if (location.getTime() >= System.currentTimeMillis() - MAX_AGE_FOR_A_LOCATION) {
+            final Location previousLocation = mLastGpsLocation;
             mLastGpsLocation = location;
 
-            // Load points around the user from the database
-            if (mPoints == null || mUserLocationAtLastDbReading == null || mUserLocationAtLastDbReading.distanceTo(location) > MIN_DISTANCE_DIFFERENCE_BETWEEN_DATABASE_RELOADS) {
+            // Reload points around the user from the tile cache, which only loads the newly uncovered tiles from the point source
+            boolean reloadPoints = false;
+            if (!mPointsLoaded || mUserLocationAtLastDbReading == null || mUserLocationAtLastDbReading.distanceTo(location) > MIN_DISTANCE_DIFFERENCE_BETWEEN_DATABASE_RELOADS) {
                 mUserLocationAtLastDbReading = location;
-                final ARDbHelper dbHelper = ARDbHelper.getInstance(getActivity().getApplicationContext());
-                mPoints = dbHelper.getPointsAround(location, MAX_RADIUS_DISTANCE_TO_SEARCH_POINTS_AROUND);
-                if (BuildConfig.DEBUG)
-                    Log.d(TAG, "Found " + mPoints.size() + " points in the database around the new user location");
+                mPointsLoaded = true;
+                reloadPoints = true;
             }
 
             // Update user location and recalculate relative azimuths of points from the new user location
-            if (mUserLocationPoint == null || mUserLocationPoint.distanceTo(location) > MIN_DISTANCE_DIFFERENCE_BETWEEN_RECALCULATIONS) {
+            // Both happen in the background: a newer location cancels the previous request, and the PointsView is updated with the resulting scene as a whole
+            if (reloadPoints || mUserLocationPoint == null || mUserLocationPoint.distanceTo(location) > MIN_DISTANCE_DIFFERENCE_BETWEEN_RECALCULATIONS) {
                 if (BuildConfig.DEBUG)
-                    Log.d(TAG, "Recalculating points azimuth from the new user location");
+                    Log.d(TAG, (reloadPoints ? "Reloading points and recalculating" : "Recalculating") + " points azimuth, vertical angle and distance from the new user location");
                 mUserLocationPoint = new Point(getString(R.string.gps_your_location), location);
-                // Update points view
-                mPointsView.setPoints(mUserLocationPoint, PointService.sortPointsByRelativeAzimuth(mUserLocationPoint, mPoints));
+                getPointsSceneLoader().load(mUserLocationPoint, reloadPoints);
             }
+
+            prefetchPointsAhead(previousLocation, location);
         }
         updateGpsStatus();
     }
 
+    /**
+     * Predicts where the user will be in {@link #PREFETCH_PREDICTION_TIME} from its speed and bearing, or from its last two locations, and prefetches the points around there in the background.<br>
+     * The tiles are then already cached when the user has moved far enough for the points to be reloaded.
+     * @param previousLocation the previous location of the user, or <b>null</b>.
+     * @param location the current location of the user.
+     */
+    private void prefetchPointsAhead(@Nullable Location previousLocation, Location location) {
+        final float speed;
+        final float bearing;
+        if (location.hasSpeed() && location.hasBearing()) {
+            speed = location.getSpeed();
+            bearing = location.getBearing();
+        } else if (previousLocation != null && location.getTime() > previousLocation.getTime()) {
+            speed = previousLocation.distanceTo(location) * 1000 / (location.getTime() - previousLocation.getTime());
+            bearing = previousLocation.bearingTo(location);
+        } else {
+            return;
+        }
+        if (speed < MIN_SPEED_TO_PREFETCH_POINTS) {
+            return;
+        }
+        final double[] predictedLocation = GeoKernel.destination(location.getLatitude(), location.getLongitude(), bearing, speed * PREFETCH_PREDICTION_TIME / 1000);
+        mPointTileCache.prefetchAsynchronously(predictedLocation[0], predictedLocation[1], MAX_RADIUS_DISTANCE_TO_SEARCH_POINTS_AROUND);
+    }
+
+    private PointsSceneLoader getPointsSceneLoader() {
+        if (mPointsSceneLoader == null) {
+            mPointsSceneLoader = new PointsSceneLoader(mPointTileCache, MAX_RADIUS_DISTANCE_TO_SEARCH_POINTS_AROUND, this);
+        }
+        return mPointsSceneLoader;
+    }
+
+    // PointsSceneLoaderListener interface
+    @Override
+    public void onPointsSceneLoaded(PointsScene pointsScene) {
+        if (isAdded()) {
+            mPointsView.setPointsScene(pointsScene);
+        }
+    }
+
+    // ARDbHelper.OnPointsChangedListener interface
+    @Override
+    public void onPointsChanged(long generation) {
+        // Called on the thread that changed the points, possibly after the fragment has been detached: only the thread-safe cache is touched here
+        mPointTileCache.clear();
+        mCheckGpsHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPointsLoaded = false;
+            }
+        });
+    }
+
+    /**
+     * Returns the {@link PointSource} from which the points around the user are loaded.<br>
+     * The {@link ARDbHelper} database by default. Override to use another source, such as a {@link BinaryPointFile} for very large sets of points.
+     * @return the {@link PointSource}.
+     */
+    protected PointSource getPointSource() {
+        return ARDbHelper.getInstance(getActivity().getApplicationContext());
+    }
+
     // LocationListener interface
     @Override
     public void onStatusChanged(String provider, int status, Bundle extras) {
@@ -292,7 +377,8 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
                 if (BuildConfig.DEBUG) Log.d(TAG, "GPS is disabled");
                 mLastGpsLocation = null;
                 mGpsStatusTextView.setText(getString(R.string.gps_disabled));
-                mPointsView.setPoints(null, null);
+                getPointsSceneLoader().cancel();
+                mPointsView.setPointsScene(null);
                 showEnableGpsAlertDialog();
             } else {
                 if (BuildConfig.DEBUG) Log.d(TAG, "GPS is enabled");
@@ -303,7 +389,8 @@ public class AugmentedRealityFragment extends CameraPreviewFragment implements L
                 } else {
                     if (BuildConfig.DEBUG) Log.d(TAG, "GPS waiting for location");
                     mGpsStatusTextView.setText(getString(R.string.gps_waiting_for_location));
-                    mPointsView.setPoints(null, null);
+                    getPointsSceneLoader().cancel();
+                    mPointsView.setPointsScene(null);
                 }
             }
         }
@@ -1,44 +1,68 @@
 package com.louisnard.argps.fragments;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.louisnard.argps.BuildConfig;
 import com.louisnard.argps.R;
 import com.louisnard.argps.model.database.ARDbHelper;
 import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.services.SortedIdsDiff;
 
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Points list {@link Fragment} showing the list of {@link Point}s in the database.<br>
  *
+ * Only the ids of all points are loaded, in the background. The names are loaded by pages of {@link #PAGE_SIZE} points, in the background too, as the list is scrolled.
+ * When the points table changes (for instance after an import or a clear), the ids are reloaded and the differences are dispatched to the {@link RecyclerView}.
+ *
  * @author Alexandre Louisnard
  */
-public class PointsListFragment extends Fragment {
+public class PointsListFragment extends Fragment implements ARDbHelper.OnPointsChangedListener {
 
     // Tag
     private static final String TAG = PointsListFragment.class.getSimpleName();
 
+    // Constants
+    // The number of point names loaded at once
+    private static final int PAGE_SIZE = 100;
+    // The maximum number of pages of point names kept in memory
+    private static final int MAX_CACHED_PAGES = 20;
+
     // Views
     private RecyclerView mRecyclerView;
+    private TextView mEmptyStateTextView;
 
     // Adapter
     private PointsAdapter mAdapter;
 
-    // Points
-    private List<Point> mPointsList;
+    // Database
+    private ARDbHelper mDbHelper;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // The points generation of the ids shown, or -1 if the ids have never been loaded
+    private long mLoadedGeneration = -1;
+    private boolean mIsLoadingIds;
+    private boolean mIsReloadPending;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mPointsList = ARDbHelper.getInstance(getContext()).getAllPoints();
+        mDbHelper = ARDbHelper.getInstance(getContext().getApplicationContext());
     }
 
     @Nullable
@@ -54,6 +78,8 @@ public class PointsListFragment extends Fragment {
         // Views
         mRecyclerView = (RecyclerView) view.findViewById(R.id.recycler_view);
         mRecyclerView.setHasFixedSize(true);
+        mEmptyStateTextView = (TextView) view.findViewById(R.id.empty_state_text_view);
+        mEmptyStateTextView.setText(R.string.points_list_empty);
     }
 
     @Override
@@ -61,21 +87,137 @@ public class PointsListFragment extends Fragment {
         super.onActivityCreated(savedInstanceState);
 
         // Set adapter
-        mAdapter = new PointsAdapter(mPointsList);
+        mAdapter = new PointsAdapter();
         mRecyclerView.setAdapter(mAdapter);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        mDbHelper.addOnPointsChangedListener(this);
+        if (mLoadedGeneration != mDbHelper.getGeneration()) {
+            loadIds();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mDbHelper.removeOnPointsChangedListener(this);
+    }
+
+    // ARDbHelper.OnPointsChangedListener implementation
+    @Override
+    public void onPointsChanged(long generation) {
+        // Called on the thread that changed the points
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isAdded()) {
+                    loadIds();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the ids of all points in the background, at most once at a time: changes happening meanwhile trigger a single reload afterwards.
+     */
+    private void loadIds() {
+        if (mIsLoadingIds) {
+            mIsReloadPending = true;
+            return;
+        }
+        mIsLoadingIds = true;
+        mIsReloadPending = false;
+        new LoadIdsTask(mAdapter.mIds).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Loads the ids of all points and calculates the differences with the ids shown.
+     */
+    private class LoadIdsTask extends AsyncTask<Void, Void, Void> {
+
+        private final long[] mOldIds;
+        private long[] mNewIds;
+        private long mGeneration;
+        private SortedIdsDiff mDiff;
+
+        LoadIdsTask(long[] oldIds) {
+            mOldIds = oldIds;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            // Read the generation first: a change happening during the query triggers another reload
+            mGeneration = mDbHelper.getGeneration();
+            mNewIds = mDbHelper.getAllPointIds();
+            mDiff = SortedIdsDiff.calculateDiff(mOldIds, mNewIds);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mIsLoadingIds = false;
+            if (!isAdded()) {
+                return;
+            }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Loaded " + mNewIds.length + " point ids");
+            mLoadedGeneration = mGeneration;
+            mAdapter.setIds(mNewIds, mDiff);
+            mEmptyStateTextView.setVisibility(mNewIds.length == 0 ? View.VISIBLE : View.GONE);
+            if (mIsReloadPending) {
+                loadIds();
+            }
+        }
+    }
 
     /**
-     * {@link RecyclerView.Adapter} that exposes {@link Point}s data to a {@link RecyclerView} through a {@link PointViewHolder}.
+     * {@link RecyclerView.Adapter} that exposes {@link Point}s data to a {@link RecyclerView} through a {@link PointViewHolder}.<br>
+     * Holds the ids of all points, and caches the names of the recently shown pages.
      */
     private class PointsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
-        private List<Point> mPointsList;
+        private long[] mIds = new long[0];
+        private final LruCache<Integer, String[]> mPages = new LruCache<>(MAX_CACHED_PAGES);
+        private final Set<Integer> mLoadingPages = new HashSet<>();
 
-        public PointsAdapter(List<Point> pointsList) {
-            mPointsList = pointsList;
+        PointsAdapter() {
+            setHasStableIds(true);
+        }
+
+        /**
+         * Replaces the ids of the points, and dispatches the differences with the previous ids.
+         * @param ids the new ids.
+         * @param diff the {@link SortedIdsDiff} between the previous ids and the new ids.
+         */
+        void setIds(long[] ids, SortedIdsDiff diff) {
+            mIds = ids;
+            // Pages are indexed by position, which the differences may have shifted. Items which are still shown keep their name.
+            mPages.evictAll();
+            mLoadingPages.clear();
+            diff.dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    notifyItemRangeInserted(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    notifyItemRangeRemoved(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    notifyItemMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    notifyItemRangeChanged(position, count, payload);
+                }
+            });
         }
 
         @Override
@@ -86,12 +228,64 @@ public class PointsListFragment extends Fragment {
 
         @Override
         public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
-            ((PointViewHolder) holder).mNameTextView.setText(mPointsList.get(position).getName());
+            final int page = position / PAGE_SIZE;
+            final String[] names = mPages.get(page);
+            if (names != null) {
+                ((PointViewHolder) holder).mNameTextView.setText(names[position - page * PAGE_SIZE]);
+            } else {
+                ((PointViewHolder) holder).mNameTextView.setText(null);
+                loadPage(page);
+            }
+            // Load the next page ahead when getting close to it
+            if (position % PAGE_SIZE >= PAGE_SIZE * 3 / 4 && (page + 1) * PAGE_SIZE < mIds.length && mPages.get(page + 1) == null) {
+                loadPage(page + 1);
+            }
         }
 
         @Override
         public int getItemCount() {
-            return mPointsList.size();
+            return mIds.length;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIds[position];
+        }
+
+        private void loadPage(int page) {
+            if (mLoadingPages.add(page)) {
+                new LoadPageTask(mIds, page).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        }
+    }
+
+    /**
+     * Loads a page of point names.
+     */
+    private class LoadPageTask extends AsyncTask<Void, Void, String[]> {
+
+        private final long[] mIds;
+        private final int mPage;
+
+        LoadPageTask(long[] ids, int page) {
+            mIds = ids;
+            mPage = page;
+        }
+
+        @Override
+        protected String[] doInBackground(Void... params) {
+            return mDbHelper.getPointNames(mIds, mPage * PAGE_SIZE, Math.min((mPage + 1) * PAGE_SIZE, mIds.length));
+        }
+
+        @Override
+        protected void onPostExecute(String[] names) {
+            // Discard the page if the ids have been reloaded meanwhile
+            if (!isAdded() || mIds != mAdapter.mIds) {
+                return;
+            }
+            mAdapter.mLoadingPages.remove(mPage);
+            mAdapter.mPages.put(mPage, names);
+            mAdapter.notifyItemRangeChanged(mPage * PAGE_SIZE, names.length);
         }
     }
 
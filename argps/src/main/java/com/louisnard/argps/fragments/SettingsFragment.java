@@ -3,9 +3,11 @@ package com.louisnard.argps.fragments;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -25,19 +27,18 @@ import com.louisnard.argps.activities.SettingsActivity;
 import com.louisnard.argps.model.Utils;
 import com.louisnard.argps.model.database.ARDbContract;
 import com.louisnard.argps.model.database.ARDbHelper;
-import com.louisnard.argps.model.objects.Point;
 import com.louisnard.argps.model.services.PointService;
 
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.util.List;
+import java.io.OutputStream;
 
 /**
  * Fragment showing the points around the user location using augmented reality over a camera preview.<br>
  *
  * @author Alexandre Louisnard
  */
-public class SettingsFragment extends Fragment implements View.OnClickListener, ARDbHelper.ARDbHelperListener, SettingsActivity.BackButtonListener, PointService.GpxParserListener {
+public class SettingsFragment extends Fragment implements View.OnClickListener, ARDbHelper.ARDbHelperListener, SettingsActivity.BackButtonListener, PointService.GpxCounterListener, PointService.GpxExportListener {
 
     // Tag
     private static final String TAG = SettingsFragment.class.getSimpleName();
@@ -52,6 +53,7 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
     private static final int REQUEST_PERMISSIONS = 2;
     private static final int REQUEST_CLEAR_EXISTING_POINTS_FROM_DB = 3;
     private static final int REQUEST_ADD_POINTS_IN_DB_CONFIRMATION_DIALOG = 4;
+    private static final int REQUEST_CREATE_GPX_FILE = 5;
 
     private boolean mFragmentIsPaused;
 
@@ -61,9 +63,11 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
     private Button mListCurrentPointsButton;
     private Button mClearExistingPointsButton;
     private Button mImportGpxFileButton;
+    private Button mExportGpxFileButton;
 
-    // GPX parsing
-    List<Point> mParsedPointsList;
+    // GPX import: the file is counted first, then reopened for the streaming import once confirmed
+    private Uri mGpxUri;
+    private int mGpxPointsNumber;
 
 
     @Override
@@ -87,11 +91,13 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
         mListCurrentPointsButton = view.findViewById(R.id.list_current_points_btn);
         mClearExistingPointsButton = view.findViewById(R.id.clear_existing_points_btn);
         mImportGpxFileButton = view.findViewById(R.id.import_gpx_file_btn);
+        mExportGpxFileButton = view.findViewById(R.id.export_gpx_file_btn);
 
         // Listeners
         mListCurrentPointsButton.setOnClickListener(this);
         mClearExistingPointsButton.setOnClickListener(this);
         mImportGpxFileButton.setOnClickListener(this);
+        mExportGpxFileButton.setOnClickListener(this);
     }
 
     @Override
@@ -136,6 +142,8 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
             } else {
                 pickFile();
             }
+        } else if (R.id.export_gpx_file_btn == v.getId()) {
+            createFile();
         }
     }
 
@@ -167,30 +175,74 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
             }
 
             // Read GPX file into input stream
-            InputStream inputStream = null;
+            final InputStream inputStream = openGpxFile(uri);
+            if (inputStream == null) {
+                alertInvalidGpxFile();
+                return;
+            }
+
+            // Count the points of the input stream
+            mGpxUri = uri;
+            showProgressBar(true, getString(R.string.gpx_parsing));
+            PointService.getInstance().countGpxPointsAsynchronously(inputStream, this);
+        } else if (REQUEST_CREATE_GPX_FILE == requestCode && resultCode == Activity.RESULT_OK) {
+            final OutputStream outputStream;
             try {
-                inputStream = getContext().getContentResolver().openInputStream(uri);
-                if (inputStream == null) {
-                    alertInvalidGpxFile();
-                    return;
-                }
+                outputStream = getContext().getContentResolver().openOutputStream(data.getData());
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
+                onGpxExported(-1);
+                return;
             }
-
-            // Parse the input stream
-            showProgressBar(true, getString(R.string.gpx_parsing));
-            PointService.getInstance().parseGpxAsynchronously(inputStream, this);
+            showProgressBar(true, getString(R.string.gpx_exporting));
+            PointService.getInstance().exportGpxAsynchronously(outputStream, ARDbHelper.getInstance(getContext()), ARDbHelper.ALL_LAYERS, null, 0, this);
         } else if (REQUEST_CLEAR_EXISTING_POINTS_FROM_DB == requestCode && resultCode == Activity.RESULT_OK) {
             ARDbHelper.getInstance(getContext()).clearTable(ARDbContract.PointsColumns.TABLE_NAME);
         } else if (REQUEST_ADD_POINTS_IN_DB_CONFIRMATION_DIALOG == requestCode && resultCode == Activity.RESULT_OK) {
-            ARDbHelper.getInstance(getContext()).addPointsAsynchronously(mParsedPointsList, this);
+            // Reopen the GPX file for the streaming import
+            final InputStream inputStream = openGpxFile(mGpxUri);
+            if (inputStream == null) {
+                alertInvalidGpxFile();
+                return;
+            }
+            // Each GPX file is imported into its own layer, identified by the file Uri and replaced when the same file is imported again
+            PointService.getInstance().importGpxAsynchronously(inputStream, ARDbHelper.getInstance(getContext()), mGpxUri.toString(), getDisplayName(mGpxUri), mGpxPointsNumber, this);
             showProgressBar(true, getString(R.string.gpx_importing));
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
     }
 
+    @Nullable
+    private InputStream openGpxFile(Uri uri) {
+        try {
+            return getContext().getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the name of a file as shown to the user, such as "points.gpx".<br>
+     * The last segment of a storage access framework {@link Uri} is a document id, such as "primary:Download/points.gpx" or "msf:1234", and is only used if the name cannot be queried.
+     * @param uri the {@link Uri} of the file.
+     * @return the display name.
+     */
+    private String getDisplayName(Uri uri) {
+        final Cursor cursor = getContext().getContentResolver().query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return uri.getLastPathSegment() != null ? uri.getLastPathSegment() : uri.toString();
+    }
+
     private void alertInvalidGpxFile() {
         if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX file");
         AlertDialogFragment.newInstance(R.string.error, R.string.gpx_invalid_file_alert_message).show(getFragmentManager(), AlertDialogFragment.TAG);
@@ -206,17 +258,24 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
         startActivityForResult(intent, REQUEST_PICK_GPX_FILE);
     }
 
-    // PointService.GpxParserListener implementation
+    private void createFile() {
+        final Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/gpx+xml");
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.gpx_export_file_name));
+        startActivityForResult(intent, REQUEST_CREATE_GPX_FILE);
+    }
+
+    // PointService.GpxCounterListener implementation
     @Override
-    public void onGpxParsed(List<Point> parsedPoints) {
+    public void onGpxPointsCounted(int pointsNumber) {
         showProgressBar(false, null);
-        mParsedPointsList = parsedPoints;
-        if (mParsedPointsList == null) {
+        if (pointsNumber == -1) {
             alertInvalidGpxFile();
             return;
         }
-        int pointsNumber = mParsedPointsList.size();
-        if (BuildConfig.DEBUG) Log.d(TAG, "Parsed " + pointsNumber + " points from the GPX file");
+        mGpxPointsNumber = pointsNumber;
+        if (BuildConfig.DEBUG) Log.d(TAG, "Counted " + pointsNumber + " points in the GPX file");
 
         if (pointsNumber == 0) {
             AlertDialogFragment.newInstance(R.string.gpx_parsed_alert_title, R.string.gpx_parsed_no_points_alert_message).show(getFragmentManager(), AlertDialogFragment.TAG);
@@ -229,12 +288,47 @@ public class SettingsFragment extends Fragment implements View.OnClickListener,
 
     // ARDbHelper.ARDbHelperListener implementation
     @Override
-    public void onPointsInserted(long insertedPointsNumber) {
+    public void onPointsInsertionProgress(long insertedPointsNumber, long duplicatePointsNumber, long failedPointsNumber, long totalPointsNumber) {
+        showProgressBar(true, String.format(getString(R.string.gpx_importing_progress), insertedPointsNumber + duplicatePointsNumber + failedPointsNumber, totalPointsNumber));
+    }
+
+    // ARDbHelper.ARDbHelperListener implementation
+    @Override
+    public void onPointsInserted(long insertedPointsNumber, long duplicatePointsNumber, long failedPointsNumber) {
         if (BuildConfig.DEBUG)
-            Log.d(TAG, "Added " + insertedPointsNumber + " points in the database");
+            Log.d(TAG, "Added " + insertedPointsNumber + " points in the database, " + duplicatePointsNumber + " duplicates skipped, " + failedPointsNumber + " failed");
+        showProgressBar(false, null);
+        if (!mFragmentIsPaused) {
+            AlertDialogFragment.newInstance(getString(R.string.gpx_parsed_alert_title), String.format(getString(R.string.gpx_points_imported_alert_message), insertedPointsNumber, duplicatePointsNumber, failedPointsNumber)).show(getFragmentManager(), AlertDialogFragment.TAG);
+        }
+    }
+
+    // ARDbHelper.ARDbHelperListener implementation
+    @Override
+    public void onPointsInsertionFailed(long processedPointsNumber) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "Import failed after processing " + processedPointsNumber + " points: none of them has been kept in the database");
         showProgressBar(false, null);
         if (!mFragmentIsPaused) {
-            AlertDialogFragment.newInstance(getString(R.string.gpx_parsed_alert_title), String.format(getString(R.string.gpx_points_imported_alert_message), insertedPointsNumber)).show(getFragmentManager(), AlertDialogFragment.TAG);
+            alertInvalidGpxFile();
+        }
+    }
+
+    // PointService.GpxExportListener implementation
+    @Override
+    public void onGpxExportProgress(long exportedPointsNumber, long totalPointsNumber) {
+        showProgressBar(true, String.format(getString(R.string.gpx_exporting_progress), exportedPointsNumber, totalPointsNumber));
+    }
+
+    // PointService.GpxExportListener implementation
+    @Override
+    public void onGpxExported(long exportedPointsNumber) {
+        showProgressBar(false, null);
+        if (!mFragmentIsPaused) {
+            if (exportedPointsNumber == -1) {
+                AlertDialogFragment.newInstance(R.string.error, R.string.gpx_export_failed_alert_message).show(getFragmentManager(), AlertDialogFragment.TAG);
+            } else {
+                AlertDialogFragment.newInstance(getString(R.string.gpx_exported_alert_title), String.format(getString(R.string.gpx_points_exported_alert_message), exportedPointsNumber)).show(getFragmentManager(), AlertDialogFragment.TAG);
+            }
         }
     }
 
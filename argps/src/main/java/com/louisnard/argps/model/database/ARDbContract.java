@@ -22,5 +22,65 @@ public final class ARDbContract {
         public static final String COLUMN_LATITUDE = "latitude";
         public static final String COLUMN_LONGITUDE = "longitude";
         public static final String COLUMN_ALTITUDE = "altitude";
+        // Spatial cell id of the point, see SpatialCell
+        public static final String COLUMN_CELL = "cell";
+        public static final String INDEX_CELL = "points_cell_index";
+        // Sines and cosines of the latitude and longitude of the point, for exact great-circle distance filters
+        public static final String COLUMN_SIN_LATITUDE = "sin_latitude";
+        public static final String COLUMN_COS_LATITUDE = "cos_latitude";
+        public static final String COLUMN_SIN_LONGITUDE = "sin_longitude";
+        public static final String COLUMN_COS_LONGITUDE = "cos_longitude";
+        // Id of the layer of the point, see LayersColumns
+        public static final String COLUMN_LAYER_ID = "layer_id";
+        // Dropped since database version 7, see ARDbHelper
+        public static final String INDEX_LAYER_ID = "points_layer_id_index";
+    }
+
+    /**
+     * Columns for the layers table.<br>
+     * Each point belongs to the layer whose {@link #_ID} is its {@link PointsColumns#COLUMN_LAYER_ID}.
+     */
+    public static final class LayersColumns implements BaseColumns {
+        public static final String TABLE_NAME = "layers";
+        public static final String COLUMN_NAME = "name";
+        // 1 if the points of the layer are shown, 0 otherwise
+        public static final String COLUMN_ENABLED = "enabled";
+        // Stable id of the source of the points, such as the Uri of the imported GPX file, or null
+        public static final String COLUMN_SOURCE = "source";
+        // 1 while the points of the layer are being imported, to replace the layer of the same source once complete, 0 otherwise
+        public static final String COLUMN_IMPORTING = "importing";
+    }
+
+    /**
+     * Columns for the points R*Tree spatial index virtual table.<br>
+     * Each row holds the bounding box of the point with the same {@link PointsColumns#_ID}.
+     */
+    public static final class PointsRTreeColumns implements BaseColumns {
+        public static final String TABLE_NAME = "points_rtree";
+        public static final String COLUMN_MIN_LATITUDE = "min_latitude";
+        public static final String COLUMN_MAX_LATITUDE = "max_latitude";
+        public static final String COLUMN_MIN_LONGITUDE = "min_longitude";
+        public static final String COLUMN_MAX_LONGITUDE = "max_longitude";
+    }
+
+    /**
+     * Columns for the points full-text search virtual table.<br>
+     * Each row holds the searchable text of the point whose {@link PointsColumns#_ID} is the row {@link #COLUMN_DOCID}.
+     */
+    public static final class PointsFtsColumns {
+        public static final String TABLE_NAME = "points_fts";
+        public static final String COLUMN_DOCID = "docid";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_DESCRIPTION = "description";
+    }
+
+    /**
+     * Columns for the migrations table, which holds the back-fills still to be run after a database upgrade.<br>
+     * Each row holds the database version of a {@link Migration} and the id of the last back-filled point.
+     */
+    public static final class MigrationsColumns {
+        public static final String TABLE_NAME = "migrations";
+        public static final String COLUMN_VERSION = "version";
+        public static final String COLUMN_LAST_ID = "last_id";
     }
 }
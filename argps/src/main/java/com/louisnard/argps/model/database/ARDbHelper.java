@@ -2,65 +2,282 @@ package com.louisnard.argps.model.database;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
 import android.os.AsyncTask;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.louisnard.argps.BuildConfig;
+import com.louisnard.argps.model.objects.Layer;
 import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.services.GeoKernel;
 import com.louisnard.argps.model.services.PointService;
+import com.louisnard.argps.model.services.SpatialCell;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class for managing the {@link SQLiteDatabase}.<br>
  *
+ * A single long-lived connection with write-ahead logging is held for the whole application lifetime, so that reads (such as augmented reality reloads) run concurrently with writes (such as a GPX import).
+ * The connection is opened in the background at the application start with {@link #openAsynchronously()}, otherwise on first use, and should only be closed with {@link #close()} when the application terminates.<br>
+ * Read-only points packs, added with {@link #addPointsPack(java.io.File)}, are queried alongside the user database.<br>
+ *
  * @author Alexandre Louisnard
  */
-public class ARDbHelper extends SQLiteOpenHelper {
+public class ARDbHelper extends SQLiteOpenHelper implements PointSource {
 
     // Tag
     private static final String TAG = ARDbHelper.class.getSimpleName();
 
     // Database information
     private static final String DATABASE_NAME = "database.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
+    // Database versions introducing each derived index or column
+    private static final int VERSION_RTREE = 2;
+    private static final int VERSION_CELL = 3;
+    private static final int VERSION_FTS = 4;
+    private static final int VERSION_TRIGONOMETRY = 5;
+    private static final int VERSION_LAYERS = 6;
+    private static final int VERSION_LAYER_SCOPED_POINTS = 7;
+
+    // Constants
+    // The number of points inserted per transaction during bulk insertions
+    private static final int POINTS_PER_INSERT_TRANSACTION = 1000;
+    // The marker to put into a queue given to addPointsAsynchronously() after the last batch of points
+    public static final List<Point> END_OF_POINTS = Collections.unmodifiableList(new ArrayList<Point>());
+    // The marker to put into the queue instead of END_OF_POINTS when the points could not all be produced, for instance because the GPX file is invalid
+    public static final List<Point> END_OF_POINTS_ON_ERROR = Collections.unmodifiableList(new ArrayList<Point>());
+    // The number of points back-filled per transaction after a database upgrade
+    private static final int BACKFILL_POINTS_PER_CHUNK = 2000;
+    // The maximum number of full-text search matches read from the database, before ranking them
+    private static final int SEARCH_MAX_CANDIDATES = 500;
+    // The ids of the points of a points pack are offset by the pack number shifted by this number of bits, so that they never collide with the user database ids
+    private static final int PACK_ID_SHIFT = 40;
+    // The directory, within the application files directory, into which the points packs shipped as assets are copied
+    private static final String PACKS_DIRECTORY = "packs";
+    // The layer of the points added without a layer, and of the points existing before layers were introduced. It cannot be deleted, only emptied.
+    public static final long DEFAULT_LAYER_ID = 1;
+    // The layer id standing for all the layers in queryPointsForExport()
+    public static final long ALL_LAYERS = 0;
 
     // Singleton pattern
     private static ARDbHelper sInstance;
 
+    private final Context mApplicationContext;
+
+    // Whether the R*Tree spatial index is available (the SQLite rtree module may be missing on some devices)
+    private volatile boolean mHasRTree;
+    // Whether the full-text search index is available (the SQLite fts4 module may be missing on some devices)
+    private volatile boolean mHasFts;
+
+    // The distance in meters under which an inserted point duplicates an existing one, see DuplicatePointFilter
+    private volatile double mDuplicateTolerance;
+
+    // Ids of the disabled layers, whose points are not returned by getPointsAround()
+    private volatile long[] mDisabledLayerIds = new long[0];
+
+    // Versions whose back-fill is still pending: their derived index or column is incomplete and must not be used by the queries yet
+    private final Set<Integer> mPendingBackfills = new CopyOnWriteArraySet<>();
+    private final AtomicBoolean mIsBackfilling = new AtomicBoolean();
+    private volatile MigrationListener mMigrationListener;
+
+    // Points generation: incremented each time the points table changes, so that snapshots and caches of points can detect that they are stale
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final List<OnPointsChangedListener> mOnPointsChangedListeners = new CopyOnWriteArrayList<>();
+
+    // Read-only points packs, queried alongside the user database
+    private final List<PointsPack> mPointsPacks = new CopyOnWriteArrayList<>();
+    private int mLastPackNumber;
+
     /**
      * {@link ARDbHelper} asynchronous operations listener.
      */
     public interface ARDbHelperListener {
+        /**
+         * Called periodically during an {@link ARDbHelper} asynchronous {@link Point}s insertion operation, each time a transaction is committed.
+         * @param insertedPointsNumber the number of {@link Point}s inserted so far.
+         * @param duplicatePointsNumber the number of {@link Point}s skipped so far as duplicates, see {@link #setDuplicateTolerance(double)}.
+         * @param failedPointsNumber the number of {@link Point}s which could not be inserted so far.
+         * @param totalPointsNumber the total number of {@link Point}s to insert.
+         */
+        void onPointsInsertionProgress(long insertedPointsNumber, long duplicatePointsNumber, long failedPointsNumber, long totalPointsNumber);
+
         /**
          * Called whenever an {@link ARDbHelper} asynchronous {@link Point}s insertion operation completes.
          * @param insertedPointsNumber the number of inserted {@link Point}s.
+         * @param duplicatePointsNumber the number of {@link Point}s skipped as duplicates.
+         * @param failedPointsNumber the number of {@link Point}s which could not be inserted.
+         */
+        void onPointsInserted(long insertedPointsNumber, long duplicatePointsNumber, long failedPointsNumber);
+
+        /**
+         * Called instead of {@link #onPointsInserted(long, long, long)} when an {@link ARDbHelper} asynchronous {@link Point}s insertion operation fails because its {@link Point}s could not all be produced, for instance because the GPX file is invalid.<br>
+         * The operation is discarded: none of its {@link Point}s remain in the database, and the {@link Point}s it was meant to replace are kept.
+         * @param processedPointsNumber the number of {@link Point}s processed before the failure, whether inserted, skipped as duplicates or failed. None of them remain in the database.
          */
-        void onPointsInserted(long insertedPointsNumber);
+        void onPointsInsertionFailed(long processedPointsNumber);
     }
 
+    /**
+     * Listener notified each time the points table changes.
+     */
+    public interface OnPointsChangedListener {
+        /**
+         * Called each time the points table changes, on the thread that made the change.
+         * @param generation the new points generation, see {@link #getGeneration()}.
+         */
+        void onPointsChanged(long generation);
+    }
+
+    // Columns read by the lightweight points queries: everything but the description, which is loaded on demand with getPointDetails()
+    private static final String[] POINTS_LIGHT_COLUMNS = new String[] {ARDbContract.PointsColumns._ID, ARDbContract.PointsColumns.COLUMN_NAME,
+            ARDbContract.PointsColumns.COLUMN_LATITUDE, ARDbContract.PointsColumns.COLUMN_LONGITUDE, ARDbContract.PointsColumns.COLUMN_ALTITUDE};
+    // Same columns, prefixed by the points table alias "p.", for the user database
+    private static final String SQL_POINTS_LIGHT_COLUMNS = pointsLightColumns(0);
+
     // SQL requests
-    private static final String SQL_CREATE_TABLE_POINTS = "CREATE TABLE " + ARDbContract.PointsColumns.TABLE_NAME
+    // Type of the layer id column: the points inserted without a layer id, and the existing points when the column is added, belong to the default layer
+    private static final String SQL_TYPE_LAYER_ID = "INTEGER NOT NULL DEFAULT " + DEFAULT_LAYER_ID;
+    private static final String SQL_CREATE_TABLE_POINTS = createTablePointsSql(ARDbContract.PointsColumns.TABLE_NAME);
+    // All columns of the points table, copied as is when the table is rebuilt
+    private static final String SQL_POINTS_COLUMNS = ARDbContract.PointsColumns._ID + "," + ARDbContract.PointsColumns.COLUMN_NAME + "," + ARDbContract.PointsColumns.COLUMN_DESCRIPTION + ","
+            + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_ALTITUDE + ","
+            + ARDbContract.PointsColumns.COLUMN_CELL + "," + ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_COS_LATITUDE + ","
+            + ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_LAYER_ID;
+    // The temporary name of the points table while it is rebuilt
+    private static final String POINTS_REBUILT_TABLE_NAME = ARDbContract.PointsColumns.TABLE_NAME + "_rebuilt";
+
+    // Index used to delete the points of a layer without scanning the table, until version 7: the uniqueness constraint, starting with the layer id, now provides it
+    private static final String SQL_CREATE_INDEX_POINTS_LAYER_ID = "CREATE INDEX IF NOT EXISTS " + ARDbContract.PointsColumns.INDEX_LAYER_ID
+            + " ON " + ARDbContract.PointsColumns.TABLE_NAME + "(" + ARDbContract.PointsColumns.COLUMN_LAYER_ID + ")";
+
+    /**
+     * Returns the SQL request creating a points table.<br>
+     * A point is unique within its layer only: the same point can be imported into several layers, and a layer is never modified by the insertions into another one.
+     * The uniqueness constraint starts with the layer id, so that its index also finds the points of a layer, within a latitude range if needed.
+     * @param tableName the table name.
+     * @return the SQL request.
+     */
+    private static String createTablePointsSql(String tableName) {
+        return "CREATE TABLE IF NOT EXISTS " + tableName
             + " (" + ARDbContract.PointsColumns._ID + " INTEGER PRIMARY KEY,"
             + ARDbContract.PointsColumns.COLUMN_NAME + " TEXT,"
             + ARDbContract.PointsColumns.COLUMN_DESCRIPTION + " TEXT,"
             + ARDbContract.PointsColumns.COLUMN_LATITUDE + " REAL,"
             + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " REAL,"
             + ARDbContract.PointsColumns.COLUMN_ALTITUDE + " INTEGER,"
-            + "UNIQUE(" + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_ALTITUDE + ") ON CONFLICT REPLACE)";
+            + ARDbContract.PointsColumns.COLUMN_CELL + " INTEGER,"
+            + ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE + " REAL,"
+            + ARDbContract.PointsColumns.COLUMN_COS_LATITUDE + " REAL,"
+            + ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE + " REAL,"
+            + ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE + " REAL,"
+            + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " " + SQL_TYPE_LAYER_ID + ","
+            + "UNIQUE(" + ARDbContract.PointsColumns.COLUMN_LAYER_ID + "," + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE + ","
+            + ARDbContract.PointsColumns.COLUMN_ALTITUDE + ") ON CONFLICT REPLACE)";
+    }
+
+    // Covering index: the points of an area are clustered by cell id, and can be read without accessing the table
+    private static final String SQL_CREATE_INDEX_POINTS_CELL = "CREATE INDEX IF NOT EXISTS " + ARDbContract.PointsColumns.INDEX_CELL
+            + " ON " + ARDbContract.PointsColumns.TABLE_NAME + "(" + ARDbContract.PointsColumns.COLUMN_CELL + ","
+            + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_ALTITUDE + ")";
+
+    private static final String SQL_CREATE_TABLE_LAYERS = "CREATE TABLE IF NOT EXISTS " + ARDbContract.LayersColumns.TABLE_NAME
+            + " (" + ARDbContract.LayersColumns._ID + " INTEGER PRIMARY KEY,"
+            + ARDbContract.LayersColumns.COLUMN_NAME + " TEXT,"
+            + ARDbContract.LayersColumns.COLUMN_ENABLED + " INTEGER NOT NULL DEFAULT 1,"
+            + ARDbContract.LayersColumns.COLUMN_SOURCE + " TEXT,"
+            + ARDbContract.LayersColumns.COLUMN_IMPORTING + " INTEGER NOT NULL DEFAULT 0)";
+    private static final String SQL_INSERT_DEFAULT_LAYER = "INSERT OR IGNORE INTO " + ARDbContract.LayersColumns.TABLE_NAME
+            + " (" + ARDbContract.LayersColumns._ID + "," + ARDbContract.LayersColumns.COLUMN_NAME + ") VALUES (" + DEFAULT_LAYER_ID + ", 'Points')";
+
+    private static final String SQL_CREATE_TABLE_POINTS_RTREE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + ARDbContract.PointsRTreeColumns.TABLE_NAME
+            + " USING rtree(" + ARDbContract.PointsRTreeColumns._ID + ","
+            + ARDbContract.PointsRTreeColumns.COLUMN_MIN_LATITUDE + "," + ARDbContract.PointsRTreeColumns.COLUMN_MAX_LATITUDE + ","
+            + ARDbContract.PointsRTreeColumns.COLUMN_MIN_LONGITUDE + "," + ARDbContract.PointsRTreeColumns.COLUMN_MAX_LONGITUDE + ")";
+
+    private static final String SQL_FILL_TABLE_POINTS_RTREE = "INSERT OR REPLACE INTO " + ARDbContract.PointsRTreeColumns.TABLE_NAME
+            + " SELECT " + ARDbContract.PointsColumns._ID + ","
+            + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LATITUDE + ","
+            + ARDbContract.PointsColumns.COLUMN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE
+            + " FROM " + ARDbContract.PointsColumns.TABLE_NAME
+            + " WHERE " + ARDbContract.PointsColumns._ID + " > ? AND " + ARDbContract.PointsColumns._ID + " <= ?";
+
+    private static final String SQL_CREATE_TABLE_POINTS_FTS = "CREATE VIRTUAL TABLE IF NOT EXISTS " + ARDbContract.PointsFtsColumns.TABLE_NAME
+            + " USING fts4(" + ARDbContract.PointsFtsColumns.COLUMN_NAME + "," + ARDbContract.PointsFtsColumns.COLUMN_DESCRIPTION;
+
+    private static final String SQL_FILL_TABLE_POINTS_FTS = "INSERT OR REPLACE INTO " + ARDbContract.PointsFtsColumns.TABLE_NAME
+            + " (" + ARDbContract.PointsFtsColumns.COLUMN_DOCID + "," + ARDbContract.PointsFtsColumns.COLUMN_NAME + "," + ARDbContract.PointsFtsColumns.COLUMN_DESCRIPTION + ")"
+            + " SELECT " + ARDbContract.PointsColumns._ID + "," + ARDbContract.PointsColumns.COLUMN_NAME + "," + ARDbContract.PointsColumns.COLUMN_DESCRIPTION
+            + " FROM " + ARDbContract.PointsColumns.TABLE_NAME
+            + " WHERE " + ARDbContract.PointsColumns._ID + " > ? AND " + ARDbContract.PointsColumns._ID + " <= ?";
+
+    private static final String SQL_CREATE_TABLE_MIGRATIONS = "CREATE TABLE IF NOT EXISTS " + ARDbContract.MigrationsColumns.TABLE_NAME
+            + " (" + ARDbContract.MigrationsColumns.COLUMN_VERSION + " INTEGER PRIMARY KEY,"
+            + ARDbContract.MigrationsColumns.COLUMN_LAST_ID + " INTEGER)";
+
+    // Points matching a full-text search, to be prefixed by "SELECT" and the columns. Stale rows (whose point has been replaced) are discarded by the join.
+    private static final String SQL_FROM_POINTS_MATCHING_FTS = " FROM " + ARDbContract.PointsFtsColumns.TABLE_NAME + " f"
+            + " JOIN " + ARDbContract.PointsColumns.TABLE_NAME + " p ON p." + ARDbContract.PointsColumns._ID + " = f." + ARDbContract.PointsFtsColumns.COLUMN_DOCID
+            + " WHERE " + ARDbContract.PointsFtsColumns.TABLE_NAME + " MATCH ? LIMIT ?";
+
+    // Points whose name contains a string, to be prefixed by "SELECT" and the columns
+    private static final String SQL_FROM_POINTS_WITH_NAME_LIKE = " FROM " + ARDbContract.PointsColumns.TABLE_NAME + " p WHERE p." + ARDbContract.PointsColumns.COLUMN_NAME + " LIKE ?";
+
+    // Points within a bounding box, using the R*Tree spatial index. Stale R*Tree rows (whose point has been replaced) are discarded by the join.
+    private static final String SQL_WHERE_POINTS_IN_BOX_RTREE = " FROM " + ARDbContract.PointsColumns.TABLE_NAME + " p"
+            + " JOIN " + ARDbContract.PointsRTreeColumns.TABLE_NAME + " r ON p." + ARDbContract.PointsColumns._ID + " = r." + ARDbContract.PointsRTreeColumns._ID
+            + " WHERE r." + ARDbContract.PointsRTreeColumns.COLUMN_MAX_LATITUDE + " >= ? AND r." + ARDbContract.PointsRTreeColumns.COLUMN_MIN_LATITUDE + " <= ?"
+            + " AND r." + ARDbContract.PointsRTreeColumns.COLUMN_MAX_LONGITUDE + " >= ? AND r." + ARDbContract.PointsRTreeColumns.COLUMN_MIN_LONGITUDE + " <= ?";
+
+    // Points within a bounding box, to be appended to the cell id ranges condition
+    private static final String SQL_AND_POINTS_IN_BOX = " AND p." + ARDbContract.PointsColumns.COLUMN_LATITUDE + " >= ? AND p." + ARDbContract.PointsColumns.COLUMN_LATITUDE + " <= ?"
+            + " AND p." + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " >= ? AND p." + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " <= ?";
+
+    // Same, for a bounding box crossing the antimeridian
+    private static final String SQL_AND_POINTS_IN_BOX_CROSSING_ANTIMERIDIAN = " AND p." + ARDbContract.PointsColumns.COLUMN_LATITUDE + " >= ? AND p." + ARDbContract.PointsColumns.COLUMN_LATITUDE + " <= ?"
+            + " AND (p." + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " >= ? OR p." + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " <= ?)";
+
+    // Points within a great-circle distance: the cosine of the central angle between the point and the center, expanded with the precomputed sines and cosines of the point,
+    // compared to the cosine of the angular radius. Parameters: sin(centerLat), cos(centerLat).cos(centerLon), cos(centerLat).sin(centerLon), cos(radius).
+    private static final String SQL_AND_POINTS_IN_CIRCLE = " AND p." + ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE + " * ? + p." + ARDbContract.PointsColumns.COLUMN_COS_LATITUDE
+            + " * (p." + ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE + " * ? + p." + ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE + " * ?) >= ?";
 
     /**
      * Constructs a new instance of {@link ARDbHelper}.<br>
      * Private constructor to prevent accidental instantiation.
      * @param applicationContext the {@link Context} to use to open or create the database.
+     * @param databaseName the name of the database file.
      */
-    private ARDbHelper(Context applicationContext) {
-        super(applicationContext, DATABASE_NAME, null, DATABASE_VERSION);
+    private ARDbHelper(Context applicationContext, String databaseName) {
+        super(applicationContext, databaseName, null, DATABASE_VERSION);
+        mApplicationContext = applicationContext.getApplicationContext();
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -70,19 +287,407 @@ public class ARDbHelper extends SQLiteOpenHelper {
      */
     public static synchronized ARDbHelper getInstance(Context applicationContext) {
         if (sInstance == null) {
-            sInstance = new ARDbHelper(applicationContext);
+            sInstance = new ARDbHelper(applicationContext, DATABASE_NAME);
         }
         return sInstance;
     }
 
+    /**
+     * Creates a new instance of {@link ARDbHelper} on a separate database file, independent from the singleton instance.<br>
+     * Meant for tests and benchmarks, which must never modify the user database. The file can be deleted with {@link Context#deleteDatabase(String)} once the instance is closed.
+     * @param applicationContext the application context to avoid leaking an activity context.
+     * @param databaseName the name of the database file, which must differ from {@link #getDbName()}.
+     * @return the new instance of {@link ARDbHelper}.
+     */
+    @VisibleForTesting
+    public static ARDbHelper newInstance(Context applicationContext, String databaseName) {
+        if (DATABASE_NAME.equals(databaseName)) {
+            throw new IllegalArgumentException("The user database is only accessed through getInstance()");
+        }
+        return new ARDbHelper(applicationContext, databaseName);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_TABLE_POINTS);
+        db.execSQL(SQL_CREATE_INDEX_POINTS_CELL);
+        db.execSQL(SQL_CREATE_TABLE_LAYERS);
+        db.execSQL(SQL_INSERT_DEFAULT_LAYER);
+        createRTree(db);
+        createFts(db);
+        db.execSQL(SQL_CREATE_TABLE_MIGRATIONS);
     }
 
+    /**
+     * Runs the schema changes of each {@link Migration} from {@param oldVersion} to {@param newVersion} in order, and registers their back-fills.<br>
+     * The back-fills are not run here, within the blocking upgrade transaction, but on a background thread once the database is open.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Nothing to do for the moment
+        db.execSQL(SQL_CREATE_TABLE_MIGRATIONS);
+        for (Migration migration : mMigrations) {
+            if (migration.getVersion() <= oldVersion || migration.getVersion() > newVersion) {
+                continue;
+            }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Migrating the database to version " + migration.getVersion());
+            if (migration.migrate(db)) {
+                // Point ids are positive: back-fill from the first one
+                db.execSQL("INSERT OR REPLACE INTO " + ARDbContract.MigrationsColumns.TABLE_NAME + " VALUES (?, 0)", new Object[] {migration.getVersion()});
+            }
+        }
+    }
+
+    // Migrations, by ascending version
+    private final Migration[] mMigrations = new Migration[] {
+            // Version 2: R*Tree spatial index
+            new Migration(VERSION_RTREE) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    return createRTree(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long fromId, long toId) {
+                    db.execSQL(SQL_FILL_TABLE_POINTS_RTREE, new Object[] {fromId, toId});
+                }
+            },
+            // Version 3: spatial cell id column and index
+            new Migration(VERSION_CELL) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_CELL, "INTEGER");
+                    db.execSQL(SQL_CREATE_INDEX_POINTS_CELL);
+                    return true;
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long fromId, long toId) {
+                    final SQLiteStatement statement = db.compileStatement("UPDATE " + ARDbContract.PointsColumns.TABLE_NAME
+                            + " SET " + ARDbContract.PointsColumns.COLUMN_CELL + " = ? WHERE " + ARDbContract.PointsColumns._ID + " = ?");
+                    final Cursor cursor = queryBackfillChunk(db, fromId, toId);
+                    while (cursor.moveToNext()) {
+                        statement.bindLong(1, SpatialCell.cellId(cursor.getDouble(1), cursor.getDouble(2)));
+                        statement.bindLong(2, cursor.getLong(0));
+                        statement.executeUpdateDelete();
+                    }
+                    cursor.close();
+                    statement.close();
+                }
+            },
+            // Version 4: full-text search index
+            new Migration(VERSION_FTS) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    return createFts(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long fromId, long toId) {
+                    db.execSQL(SQL_FILL_TABLE_POINTS_FTS, new Object[] {fromId, toId});
+                }
+            },
+            // Version 5: sines and cosines columns
+            new Migration(VERSION_TRIGONOMETRY) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE, "REAL");
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_COS_LATITUDE, "REAL");
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE, "REAL");
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE, "REAL");
+                    return true;
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long fromId, long toId) {
+                    final SQLiteStatement statement = db.compileStatement("UPDATE " + ARDbContract.PointsColumns.TABLE_NAME
+                            + " SET " + ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE + " = ?, " + ARDbContract.PointsColumns.COLUMN_COS_LATITUDE + " = ?, "
+                            + ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE + " = ?, " + ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE + " = ?"
+                            + " WHERE " + ARDbContract.PointsColumns._ID + " = ?");
+                    final Cursor cursor = queryBackfillChunk(db, fromId, toId);
+                    while (cursor.moveToNext()) {
+                        bindTrigonometry(statement, 1, cursor.getDouble(1), cursor.getDouble(2));
+                        statement.bindLong(5, cursor.getLong(0));
+                        statement.executeUpdateDelete();
+                    }
+                    cursor.close();
+                    statement.close();
+                }
+            },
+            // Version 6: layers. Adding a column with a constant default value does not rewrite the existing rows, which all go to the default layer.
+            new Migration(VERSION_LAYERS) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_TABLE_LAYERS);
+                    db.execSQL(SQL_INSERT_DEFAULT_LAYER);
+                    addColumnIfMissing(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_LAYER_ID, SQL_TYPE_LAYER_ID);
+                    db.execSQL(SQL_CREATE_INDEX_POINTS_LAYER_ID);
+                    return false;
+                }
+            },
+            // Version 7: points unique within their layer only, and layers identified by their source and imported aside.
+            // SQLite cannot alter a constraint: the points table is rebuilt, keeping the ids referenced by the R*Tree and full-text search rows, and the derived columns even if their back-fill is pending.
+            new Migration(VERSION_LAYER_SCOPED_POINTS) {
+                @Override
+                boolean migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP TABLE IF EXISTS " + POINTS_REBUILT_TABLE_NAME);
+                    db.execSQL(createTablePointsSql(POINTS_REBUILT_TABLE_NAME));
+                    db.execSQL("INSERT INTO " + POINTS_REBUILT_TABLE_NAME + " (" + SQL_POINTS_COLUMNS + ") SELECT " + SQL_POINTS_COLUMNS + " FROM " + ARDbContract.PointsColumns.TABLE_NAME);
+                    // Also drops the layer id index
+                    db.execSQL("DROP TABLE " + ARDbContract.PointsColumns.TABLE_NAME);
+                    db.execSQL("ALTER TABLE " + POINTS_REBUILT_TABLE_NAME + " RENAME TO " + ARDbContract.PointsColumns.TABLE_NAME);
+                    db.execSQL(SQL_CREATE_INDEX_POINTS_CELL);
+                    addColumnIfMissing(db, ARDbContract.LayersColumns.TABLE_NAME, ARDbContract.LayersColumns.COLUMN_SOURCE, "TEXT");
+                    addColumnIfMissing(db, ARDbContract.LayersColumns.TABLE_NAME, ARDbContract.LayersColumns.COLUMN_IMPORTING, "INTEGER NOT NULL DEFAULT 0");
+                    return false;
+                }
+            }
+    };
+
+    /**
+     * Queries the ids, latitudes and longitudes of the points of a back-fill chunk.
+     * @param db the {@link SQLiteDatabase}.
+     * @param fromId the id after which to read, excluded.
+     * @param toId the id up to which to read, included.
+     * @return the {@link Cursor}, which must be closed after use.
+     */
+    private static Cursor queryBackfillChunk(SQLiteDatabase db, long fromId, long toId) {
+        return db.query(ARDbContract.PointsColumns.TABLE_NAME,
+                new String[] {ARDbContract.PointsColumns._ID, ARDbContract.PointsColumns.COLUMN_LATITUDE, ARDbContract.PointsColumns.COLUMN_LONGITUDE},
+                ARDbContract.PointsColumns._ID + " > ? AND " + ARDbContract.PointsColumns._ID + " <= ?", new String[] {String.valueOf(fromId), String.valueOf(toId)}, null, null, null);
+    }
+
+    /**
+     * Adds a column to a table, unless it already exists.
+     * @param db the {@link SQLiteDatabase}.
+     * @param table the table name.
+     * @param column the column name.
+     * @param type the column type.
+     */
+    private static void addColumnIfMissing(SQLiteDatabase db, String table, String column, String type) {
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        final int nameIndex = cursor.getColumnIndex("name");
+        boolean exists = false;
+        while (cursor.moveToNext() && !exists) {
+            exists = column.equals(cursor.getString(nameIndex));
+        }
+        cursor.close();
+        if (!exists) {
+            db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
+
+    /**
+     * Binds the sines and cosines of the given latitude and longitude, in this order: sin(latitude), cos(latitude), sin(longitude), cos(longitude).
+     * @param statement the {@link SQLiteStatement}.
+     * @param index the index of the first parameter to bind.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     */
+    private static void bindTrigonometry(SQLiteStatement statement, int index, double latitude, double longitude) {
+        final double latitudeRadians = Math.toRadians(latitude);
+        final double longitudeRadians = Math.toRadians(longitude);
+        statement.bindDouble(index, Math.sin(latitudeRadians));
+        statement.bindDouble(index + 1, Math.cos(latitudeRadians));
+        statement.bindDouble(index + 2, Math.sin(longitudeRadians));
+        statement.bindDouble(index + 3, Math.cos(longitudeRadians));
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        mHasRTree = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.PointsRTreeColumns.TABLE_NAME}) > 0;
+        mHasFts = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.PointsFtsColumns.TABLE_NAME}) > 0;
+        loadDisabledLayerIds(db);
+        deleteInterruptedImports(db);
+
+        // Resume the pending back-fills, if any
+        mPendingBackfills.clear();
+        if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.MigrationsColumns.TABLE_NAME}) > 0) {
+            final Cursor cursor = db.query(ARDbContract.MigrationsColumns.TABLE_NAME, new String[] {ARDbContract.MigrationsColumns.COLUMN_VERSION}, null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                mPendingBackfills.add(cursor.getInt(0));
+            }
+            cursor.close();
+        }
+        if (!mPendingBackfills.isEmpty() && mIsBackfilling.compareAndSet(false, true)) {
+            new BackfillTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Listener notified of the progress of the back-fills run in the background after a database upgrade.
+     */
+    public interface MigrationListener {
+        /**
+         * Called periodically during a back-fill, each time a chunk is committed.
+         * @param version the database version of the {@link Migration} being back-filled.
+         * @param processedPointsNumber the number of points back-filled so far.
+         * @param totalPointsNumber the total number of points to back-fill.
+         */
+        void onMigrationProgress(int version, long processedPointsNumber, long totalPointsNumber);
+
+        /**
+         * Called when all back-fills have completed.
+         */
+        void onMigrationsCompleted();
+    }
+
+    /**
+     * Sets the {@link MigrationListener} notified of the progress of the background back-fills.
+     * @param listener the {@link MigrationListener}, or <b>null</b>.
+     */
+    public void setMigrationListener(MigrationListener listener) {
+        mMigrationListener = listener;
+    }
+
+    /**
+     * Returns whether back-fills are still running in the background after a database upgrade.<br>
+     * Meanwhile, the queries do not use the incomplete indexes and columns, and may be slower.
+     * @return <b>true</b> if back-fills are running.
+     */
+    public boolean isMigrating() {
+        return !mPendingBackfills.isEmpty();
+    }
+
+    /**
+     * Runs the pending back-fills in order, by chunks of {@link #BACKFILL_POINTS_PER_CHUNK} points.<br>
+     * Each chunk is committed with the id of its last point, so that a back-fill interrupted by the application being killed resumes after the last committed chunk.
+     */
+    private class BackfillTask extends AsyncTask<Void, Long, Void> {
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final SQLiteDatabase db = getWritableDatabase();
+            final long totalPointsNumber = DatabaseUtils.queryNumEntries(db, ARDbContract.PointsColumns.TABLE_NAME);
+            for (Migration migration : mMigrations) {
+                final int version = migration.getVersion();
+                if (!mPendingBackfills.contains(version)) {
+                    continue;
+                }
+                long lastId = DatabaseUtils.longForQuery(db, "SELECT " + ARDbContract.MigrationsColumns.COLUMN_LAST_ID + " FROM " + ARDbContract.MigrationsColumns.TABLE_NAME
+                        + " WHERE " + ARDbContract.MigrationsColumns.COLUMN_VERSION + " = ?", new String[] {String.valueOf(version)});
+                long processedPointsNumber = DatabaseUtils.queryNumEntries(db, ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns._ID + " <= ?", new String[] {String.valueOf(lastId)});
+                while (true) {
+                    // Find the last id of the next chunk
+                    final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, new String[] {ARDbContract.PointsColumns._ID},
+                            ARDbContract.PointsColumns._ID + " > ?", new String[] {String.valueOf(lastId)}, null, null, ARDbContract.PointsColumns._ID, String.valueOf(BACKFILL_POINTS_PER_CHUNK));
+                    final int count = cursor.getCount();
+                    final long toId = cursor.moveToLast() ? cursor.getLong(0) : lastId;
+                    cursor.close();
+                    db.beginTransactionNonExclusive();
+                    try {
+                        if (count > 0) {
+                            migration.backfill(db, lastId, toId);
+                            db.execSQL("UPDATE " + ARDbContract.MigrationsColumns.TABLE_NAME + " SET " + ARDbContract.MigrationsColumns.COLUMN_LAST_ID + " = ?"
+                                    + " WHERE " + ARDbContract.MigrationsColumns.COLUMN_VERSION + " = ?", new Object[] {toId, version});
+                        } else {
+                            db.delete(ARDbContract.MigrationsColumns.TABLE_NAME, ARDbContract.MigrationsColumns.COLUMN_VERSION + " = ?", new String[] {String.valueOf(version)});
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    if (count == 0) {
+                        break;
+                    }
+                    lastId = toId;
+                    processedPointsNumber += count;
+                    publishProgress((long) version, processedPointsNumber, totalPointsNumber);
+                }
+                // The derived index or column is complete: the queries can use it
+                mPendingBackfills.remove(version);
+                if (BuildConfig.DEBUG) Log.d(TAG, "Back-filled " + processedPointsNumber + " points for database version " + version);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Long... values) {
+            final MigrationListener listener = mMigrationListener;
+            if (listener != null) {
+                listener.onMigrationProgress(values[0].intValue(), values[1], values[2]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mIsBackfilling.set(false);
+            final MigrationListener listener = mMigrationListener;
+            if (listener != null) {
+                listener.onMigrationsCompleted();
+            }
+        }
+    }
+
+    /**
+     * Creates the R*Tree spatial index virtual table, if the SQLite rtree module is available.
+     * @param db the {@link SQLiteDatabase}.
+     * @return <b>true</b> if the table has been created. <b>false</b> otherwise.
+     */
+    private boolean createRTree(SQLiteDatabase db) {
+        try {
+            db.execSQL(SQL_CREATE_TABLE_POINTS_RTREE);
+            return true;
+        } catch (SQLiteException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "SQLite rtree module unavailable, points will be searched without spatial index");
+            return false;
+        }
+    }
+
+    /**
+     * Creates the full-text search virtual table, if the SQLite fts4 module is available.<br>
+     * The unicode61 tokenizer, which folds accents and non-ASCII case (for instance "Dôme" matches "dome"), is used if available.
+     * @param db the {@link SQLiteDatabase}.
+     * @return <b>true</b> if the table has been created. <b>false</b> otherwise.
+     */
+    private boolean createFts(SQLiteDatabase db) {
+        try {
+            db.execSQL(SQL_CREATE_TABLE_POINTS_FTS + ", tokenize=unicode61)");
+            return true;
+        } catch (SQLiteException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "SQLite unicode61 tokenizer unavailable, falling back to the simple tokenizer");
+        }
+        try {
+            db.execSQL(SQL_CREATE_TABLE_POINTS_FTS + ")");
+            return true;
+        } catch (SQLiteException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "SQLite fts4 module unavailable, points will be searched without full-text index");
+            return false;
+        }
+    }
+
+    /**
+     * Opens the long-lived database connection, creating or upgrading the database if necessary.<br>
+     * Optional: the connection is otherwise opened on first use. Called in the background at the application start by {@link #openAsynchronously()}, to avoid this cost on the first query. Should not be called on the main thread.
+     */
+    public void open() {
+        getWritableDatabase();
+    }
+
+    /**
+     * Opens the long-lived database connection on a background thread, see {@link #open()}.<br>
+     * Meant to be called from the main thread at the application start, so that the first query does not open the database on the main thread.
+     */
+    public void openAsynchronously() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Closes the long-lived database connection.<br>
+     * Should only be called when the application terminates: any operation running concurrently would fail.
+     */
+    @Override
+    public synchronized void close() {
+        for (PointsPack pointsPack : mPointsPacks) {
+            pointsPack.mDb.close();
+        }
+        mPointsPacks.clear();
+        super.close();
     }
 
     /**
@@ -100,70 +705,783 @@ public class ARDbHelper extends SQLiteOpenHelper {
     public void clearTable(String tableName) {
         final SQLiteDatabase db = getWritableDatabase();
         db.execSQL("DELETE FROM " + tableName);
-        db.close();
+        if (ARDbContract.PointsColumns.TABLE_NAME.equals(tableName) && mHasRTree) {
+            db.execSQL("DELETE FROM " + ARDbContract.PointsRTreeColumns.TABLE_NAME);
+        }
+        if (ARDbContract.PointsColumns.TABLE_NAME.equals(tableName) && mHasFts) {
+            db.execSQL("DELETE FROM " + ARDbContract.PointsFtsColumns.TABLE_NAME);
+        }
+        if (ARDbContract.PointsColumns.TABLE_NAME.equals(tableName)) {
+            notifyPointsChanged();
+        }
+    }
+
+    /**
+     * Returns the points generation, which is incremented each time the points table changes.<br>
+     * A snapshot or a cache of points built at a given generation is stale as soon as the generation changes.
+     * @return the points generation.
+     */
+    public long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Registers an {@link OnPointsChangedListener}.
+     * @param listener the {@link OnPointsChangedListener} to register.
+     */
+    public void addOnPointsChangedListener(OnPointsChangedListener listener) {
+        mOnPointsChangedListeners.add(listener);
+    }
+
+    /**
+     * Unregisters an {@link OnPointsChangedListener}.
+     * @param listener the {@link OnPointsChangedListener} to unregister.
+     */
+    public void removeOnPointsChangedListener(OnPointsChangedListener listener) {
+        mOnPointsChangedListeners.remove(listener);
+    }
+
+    // Increments the points generation and notifies the listeners
+    private void notifyPointsChanged() {
+        final long generation = mGeneration.incrementAndGet();
+        for (OnPointsChangedListener listener : mOnPointsChangedListeners) {
+            listener.onPointsChanged(generation);
+        }
+    }
+
+    /**
+     * Creates a new layer.
+     * @param name the layer name.
+     * @return the id of the new layer.
+     */
+    public long createLayer(String name) {
+        final ContentValues values = new ContentValues();
+        values.put(ARDbContract.LayersColumns.COLUMN_NAME, name);
+        return getWritableDatabase().insertOrThrow(ARDbContract.LayersColumns.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Creates the layer receiving the points imported from the given source, disabled until {@link #commitImportedLayer(long, String)} replaces the previous layer of the same source with it.<br>
+     * The points are thus inserted and committed by chunks without hiding the previous points of the source, nor holding the write lock during the whole import.
+     * @param sourceId the stable id of the source of the points, such as the {@link android.net.Uri} of the GPX file.
+     * @param name the layer name, shown to the user.
+     * @return the id of the new layer.
+     */
+    private long createImportingLayer(String sourceId, String name) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final ContentValues values = new ContentValues();
+        values.put(ARDbContract.LayersColumns.COLUMN_NAME, name);
+        values.put(ARDbContract.LayersColumns.COLUMN_SOURCE, sourceId);
+        values.put(ARDbContract.LayersColumns.COLUMN_ENABLED, 0);
+        values.put(ARDbContract.LayersColumns.COLUMN_IMPORTING, 1);
+        final long layerId = db.insertOrThrow(ARDbContract.LayersColumns.TABLE_NAME, null, values);
+        loadDisabledLayerIds(db);
+        return layerId;
     }
 
     /**
-     * Returns all points from the {@link SQLiteDatabase}.
+     * Replaces the previous layers of the given source, if any, with the layer created by {@link #createImportingLayer(String, String)} once all its points are inserted.<br>
+     * Runs in a single short transaction, so that the readers see either the previous points or the new ones.
+     * The new layer is enabled unless the previous layer was disabled by the user.
+     * The layers are looked up by their source rather than by their name: two different files with the same name get their own layers.
+     * @param layerId the id of the imported layer.
+     * @param sourceId the stable id of the source of the points.
+     */
+    private void commitImportedLayer(long layerId, String sourceId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        boolean enabled = true;
+        db.beginTransactionNonExclusive();
+        try {
+            final Cursor cursor = db.query(ARDbContract.LayersColumns.TABLE_NAME, new String[] {ARDbContract.LayersColumns._ID, ARDbContract.LayersColumns.COLUMN_ENABLED},
+                    ARDbContract.LayersColumns.COLUMN_SOURCE + " = ? AND " + ARDbContract.LayersColumns.COLUMN_IMPORTING + " = 0", new String[] {sourceId}, null, null, null);
+            while (cursor.moveToNext()) {
+                enabled = cursor.getInt(1) != 0;
+                deleteLayerPoints(cursor.getLong(0));
+                db.delete(ARDbContract.LayersColumns.TABLE_NAME, ARDbContract.LayersColumns._ID + " = ?", new String[] {String.valueOf(cursor.getLong(0))});
+            }
+            cursor.close();
+            final ContentValues values = new ContentValues();
+            values.put(ARDbContract.LayersColumns.COLUMN_ENABLED, enabled ? 1 : 0);
+            values.put(ARDbContract.LayersColumns.COLUMN_IMPORTING, 0);
+            db.update(ARDbContract.LayersColumns.TABLE_NAME, values, ARDbContract.LayersColumns._ID + " = ?", new String[] {String.valueOf(layerId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        loadDisabledLayerIds(db);
+        notifyPointsChanged();
+    }
+
+    // Deletes in the background the layers left by the imports interrupted by the application being killed, if any
+    private void deleteInterruptedImports(SQLiteDatabase db) {
+        final Cursor cursor = db.query(ARDbContract.LayersColumns.TABLE_NAME, new String[] {ARDbContract.LayersColumns._ID},
+                ARDbContract.LayersColumns.COLUMN_IMPORTING + " = 1", null, null, null, null);
+        final long[] layerIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            layerIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        if (layerIds.length == 0) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (long layerId : layerIds) {
+                    deleteLayer(layerId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a layer and all its points.<br>
+     * The points are found through the layer id index, so that the cost depends on the size of the layer only, not on the size of the whole table.
+     * The {@link #DEFAULT_LAYER_ID} layer is only emptied.
+     * @param layerId the layer id.
+     */
+    public void deleteLayer(long layerId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            deleteLayerPoints(layerId);
+            if (layerId != DEFAULT_LAYER_ID) {
+                db.delete(ARDbContract.LayersColumns.TABLE_NAME, ARDbContract.LayersColumns._ID + " = ?", new String[] {String.valueOf(layerId)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        loadDisabledLayerIds(db);
+        notifyPointsChanged();
+    }
+
+    // Deletes the points of a layer, with their R*Tree and full-text search rows
+    private void deleteLayerPoints(long layerId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = new String[] {String.valueOf(layerId)};
+        final String layerPointIdsSql = " IN (SELECT " + ARDbContract.PointsColumns._ID + " FROM " + ARDbContract.PointsColumns.TABLE_NAME
+                + " WHERE " + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = ?)";
+        db.beginTransactionNonExclusive();
+        try {
+            if (mHasRTree) {
+                db.delete(ARDbContract.PointsRTreeColumns.TABLE_NAME, ARDbContract.PointsRTreeColumns._ID + layerPointIdsSql, args);
+            }
+            if (mHasFts) {
+                db.delete(ARDbContract.PointsFtsColumns.TABLE_NAME, ARDbContract.PointsFtsColumns.COLUMN_DOCID + layerPointIdsSql, args);
+            }
+            db.delete(ARDbContract.PointsColumns.TABLE_NAME, ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Within an enclosing transaction, nothing is committed yet: its owner notifies the change once committed
+        if (!db.inTransaction()) {
+            notifyPointsChanged();
+        }
+    }
+
+    /**
+     * Enables or disables a layer: the points of a disabled layer are not returned by {@link #getPointsAround(Location, int)}.
+     * @param layerId the layer id.
+     * @param enabled <b>true</b> to enable the layer. <b>false</b> to disable it.
+     */
+    public void setLayerEnabled(long layerId, boolean enabled) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final ContentValues values = new ContentValues();
+        values.put(ARDbContract.LayersColumns.COLUMN_ENABLED, enabled ? 1 : 0);
+        db.update(ARDbContract.LayersColumns.TABLE_NAME, values, ARDbContract.LayersColumns._ID + " = ?", new String[] {String.valueOf(layerId)});
+        loadDisabledLayerIds(db);
+        notifyPointsChanged();
+    }
+
+    /**
+     * Returns all layers, with their number of points, except the layers being imported.
+     * @return the {@link List<Layer>}.
+     */
+    public List<Layer> getLayers() {
+        final Cursor cursor = getReadableDatabase().rawQuery("SELECT l." + ARDbContract.LayersColumns._ID + ", l." + ARDbContract.LayersColumns.COLUMN_NAME + ", l." + ARDbContract.LayersColumns.COLUMN_ENABLED
+                + ", (SELECT COUNT(*) FROM " + ARDbContract.PointsColumns.TABLE_NAME + " p WHERE p." + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = l." + ARDbContract.LayersColumns._ID + ")"
+                + " FROM " + ARDbContract.LayersColumns.TABLE_NAME + " l WHERE l." + ARDbContract.LayersColumns.COLUMN_IMPORTING + " = 0 ORDER BY l." + ARDbContract.LayersColumns._ID, null);
+        final List<Layer> layers = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            layers.add(new Layer(cursor.getLong(0), cursor.getString(1), cursor.getInt(2) != 0, cursor.getLong(3)));
+        }
+        cursor.close();
+        return layers;
+    }
+
+    // Reads the ids of the disabled layers, which are few, so that the queries can exclude them without a join
+    private void loadDisabledLayerIds(SQLiteDatabase db) {
+        final Cursor cursor = db.query(ARDbContract.LayersColumns.TABLE_NAME, new String[] {ARDbContract.LayersColumns._ID},
+                ARDbContract.LayersColumns.COLUMN_ENABLED + " = 0", null, null, null, null);
+        final long[] disabledLayerIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            disabledLayerIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        mDisabledLayerIds = disabledLayerIds;
+    }
+
+    // Returns the condition excluding the points of the disabled layers, or an empty string if all layers are enabled
+    private String enabledLayersSql() {
+        final long[] disabledLayerIds = mDisabledLayerIds;
+        if (disabledLayerIds.length == 0) {
+            return "";
+        }
+        final StringBuilder sql = new StringBuilder(" AND p.").append(ARDbContract.PointsColumns.COLUMN_LAYER_ID).append(" NOT IN (");
+        for (int i = 0; i < disabledLayerIds.length; i++) {
+            sql.append(i == 0 ? "" : ",").append(disabledLayerIds[i]);
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * A read-only points pack: a prepackaged database of points with the same schema as the user database, including its derived indexes and columns.
+     */
+    private static class PointsPack {
+
+        private final File mFile;
+        private final SQLiteDatabase mDb;
+        private final long mNumber;
+        private final long mIdOffset;
+        private final boolean mHasRTree;
+        private final boolean mHasFts;
+
+        PointsPack(File file, SQLiteDatabase db, long number) {
+            mFile = file;
+            mDb = db;
+            mNumber = number;
+            mIdOffset = number << PACK_ID_SHIFT;
+            mHasRTree = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.PointsRTreeColumns.TABLE_NAME}) > 0;
+            mHasFts = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.PointsFtsColumns.TABLE_NAME}) > 0;
+        }
+    }
+
+    /**
+     * Adds a read-only points pack, whose points are then returned by {@link #getPointsAround(Location, int)}, {@link #findPointsByName(String)} and {@link #searchPoints(String, Location, int)} along with the user points.<br>
+     *
+     * A points pack is a database built with this same schema, with the sines and cosines columns (version 5) or above, with its back-fills completed, checkpointed and in rollback journal mode, for instance a database exported with {@link #getDbName()} on a device.
+     * It is opened with its own read-only connection, so that it is never copied into nor written by the user database: shipping or updating a large set of points costs no import.
+     * Its point ids are offset so that they never collide with the user database ids, which lets {@link #getPointName(long)} and {@link #getPointDetails(long)} find them.<br>
+     * Should not be called on the main thread.
+     * @param file the database file.
+     * @return <b>true</b> if the points pack has been added or was already added. <b>false</b> if it cannot be opened or has an incompatible schema.
+     */
+    public synchronized boolean addPointsPack(File file) {
+        for (PointsPack pointsPack : mPointsPacks) {
+            if (pointsPack.mFile.equals(file)) {
+                return true;
+            }
+        }
+        final SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        } catch (SQLiteException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Cannot open the points pack " + file + ": " + e.getMessage());
+            return false;
+        }
+        try {
+            // The points pack queries rely on the spatial cell id and the sines and cosines columns
+            if (db.getVersion() < VERSION_TRIGONOMETRY
+                    || (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?", new String[] {ARDbContract.MigrationsColumns.TABLE_NAME}) > 0
+                    && DatabaseUtils.queryNumEntries(db, ARDbContract.MigrationsColumns.TABLE_NAME) > 0)) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Incompatible points pack " + file + " at version " + db.getVersion());
+                db.close();
+                return false;
+            }
+            mPointsPacks.add(new PointsPack(file, db, ++mLastPackNumber));
+        } catch (SQLiteException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Invalid points pack " + file + ": " + e.getMessage());
+            db.close();
+            return false;
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Added the points pack " + file);
+        notifyPointsChanged();
+        return true;
+    }
+
+    /**
+     * Adds a read-only points pack shipped in the application assets.<br>
+     * SQLite cannot open a database within the APK: the asset is first copied, once per application update, into the application files directory.
+     * Should not be called on the main thread.
+     * @param assetName the asset name of the database file.
+     * @return <b>true</b> if the points pack has been added or was already added. <b>false</b> otherwise.
+     * @see #addPointsPack(File)
+     */
+    public boolean addPointsPackFromAssets(String assetName) {
+        final File directory = new File(mApplicationContext.getFilesDir(), PACKS_DIRECTORY);
+        final File file = new File(directory, new File(assetName).getName());
+        try {
+            final long lastUpdateTime = mApplicationContext.getPackageManager().getPackageInfo(mApplicationContext.getPackageName(), 0).lastUpdateTime;
+            if (!file.exists() || file.lastModified() < lastUpdateTime) {
+                // Remove the outdated copy first, in case it is already open
+                removePointsPack(file);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    return false;
+                }
+                copyAsset(assetName, file);
+            }
+        } catch (PackageManager.NameNotFoundException | IOException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Cannot copy the points pack " + assetName + ": " + e.getMessage());
+            return false;
+        }
+        return addPointsPack(file);
+    }
+
+    // Copies an asset into a file, through a temporary file so that an interrupted copy is never opened
+    private void copyAsset(String assetName, File file) throws IOException {
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        final InputStream inputStream = mApplicationContext.getAssets().open(assetName);
+        try {
+            final OutputStream outputStream = new FileOutputStream(temporaryFile);
+            try {
+                final byte[] buffer = new byte[64 * 1024];
+                int length;
+                while ((length = inputStream.read(buffer)) > 0) {
+                    outputStream.write(buffer, 0, length);
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporaryFile);
+        }
+    }
+
+    /**
+     * Removes and closes a read-only points pack added with {@link #addPointsPack(File)}.
+     * @param file the database file.
+     * @return <b>true</b> if the points pack has been removed. <b>false</b> if it was not added.
+     */
+    public synchronized boolean removePointsPack(File file) {
+        for (PointsPack pointsPack : mPointsPacks) {
+            if (pointsPack.mFile.equals(file)) {
+                mPointsPacks.remove(pointsPack);
+                pointsPack.mDb.close();
+                notifyPointsChanged();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the points pack with the given number, or null if it has been removed
+    private PointsPack getPointsPack(long number) {
+        for (PointsPack pointsPack : mPointsPacks) {
+            if (pointsPack.mNumber == number) {
+                return pointsPack;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ids of all points from the {@link SQLiteDatabase}, in ascending order.<br>
+     * Read from the primary key only, which is much lighter than {@link #getAllPoints()} for a large table. The points packs are not included.
+     * @return the ids.
+     */
+    public long[] getAllPointIds() {
+        final SQLiteDatabase db = getReadableDatabase();
+        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, new String[] {ARDbContract.PointsColumns._ID}, null, null, null, null, ARDbContract.PointsColumns._ID);
+        final long[] ids = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < ids.length) {
+            ids[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        return i == ids.length ? ids : Arrays.copyOf(ids, i);
+    }
+
+    /**
+     * Returns the names of the points with the given ids, read with a single range query on the primary key.
+     * @param ids the ids, in ascending order, for instance from {@link #getAllPointIds()}.
+     * @param from the index of the first id, included.
+     * @param to the index of the last id, excluded.
+     * @return the names, indexed from {@param from}. A name is <b>null</b> if the point no longer exists.
+     */
+    public String[] getPointNames(long[] ids, int from, int to) {
+        final String[] names = new String[to - from];
+        if (to <= from) {
+            return names;
+        }
+        final SQLiteDatabase db = getReadableDatabase();
+        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, new String[] {ARDbContract.PointsColumns._ID, ARDbContract.PointsColumns.COLUMN_NAME},
+                ARDbContract.PointsColumns._ID + " BETWEEN ? AND ?", new String[] {String.valueOf(ids[from]), String.valueOf(ids[to - 1])}, null, null, ARDbContract.PointsColumns._ID);
+        // Both the ids and the rows are sorted: merge them
+        int i = from;
+        while (cursor.moveToNext() && i < to) {
+            final long id = cursor.getLong(0);
+            while (i < to && ids[i] < id) {
+                i++;
+            }
+            if (i < to && ids[i] == id) {
+                names[i - from] = cursor.getString(1);
+                i++;
+            }
+        }
+        cursor.close();
+        return names;
+    }
+
+    /**
+     * Returns all points from the {@link SQLiteDatabase}.<br>
+     * The descriptions are not read: use {@link #getPointDetails(long)}. The points packs are not included.
      * @return the {@link List<Point>}.
      */
     public List<Point> getAllPoints() {
         final SQLiteDatabase db = getReadableDatabase();
-        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, null, null, null, null, null, null);
-        final List<Point> points = new ArrayList<>();
+        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, POINTS_LIGHT_COLUMNS, null, null, null, null, null);
+        final List<Point> points = readPoints(cursor);
+        cursor.close();
+        return points;
+    }
+
+    /**
+     * Queries the user points to export, optionally restricted to a layer and to an area, whatever their layer is enabled or not, except the points still being imported.<br>
+     * The rows are meant to be read one at a time and never all held in memory: the {@link Cursor} only holds a window of rows at once.
+     * The points packs are not included.
+     * @param layerId the id of the layer whose points are exported, or {@link #ALL_LAYERS}.
+     * @param location the {@link Location} around which the points have to be located, or <b>null</b> to export the points wherever they are.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located. Ignored without a {@link Location}.
+     * @return the {@link Cursor} of the columns id, name, latitude, longitude, altitude and description, in this order, which must be closed after use.
+     */
+    public Cursor queryPointsForExport(long layerId, Location location, int distance) {
+        final SQLiteDatabase db = getReadableDatabase();
+        final String columns = pointsLightColumns(0) + ", p." + ARDbContract.PointsColumns.COLUMN_DESCRIPTION;
+        final String layerSql = layerId == ALL_LAYERS ? " AND p." + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " NOT IN (SELECT " + ARDbContract.LayersColumns._ID + " FROM " + ARDbContract.LayersColumns.TABLE_NAME
+                + " WHERE " + ARDbContract.LayersColumns.COLUMN_IMPORTING + " = 1)" : " AND p." + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = " + layerId;
+        if (location == null) {
+            return db.rawQuery("SELECT " + columns + " FROM " + ARDbContract.PointsColumns.TABLE_NAME + " p WHERE 1" + layerSql, null);
+        }
+        return queryPointsAround(db, mHasRTree && !mPendingBackfills.contains(VERSION_RTREE), !mPendingBackfills.contains(VERSION_CELL), !mPendingBackfills.contains(VERSION_TRIGONOMETRY),
+                location, distance, columns, layerSql);
+    }
+
+    /**
+     * Reads all rows of the given {@link Cursor} as {@link Point}s, resolving the column indices only once.
+     * @param cursor the {@link Cursor}, which is not closed.
+     * @return the {@link List<Point>}.
+     */
+    private static List<Point> readPoints(Cursor cursor) {
+        final List<Point> points = new ArrayList<>(cursor.getCount());
+        final Point.CursorReader cursorReader = new Point.CursorReader(cursor);
         while (cursor.moveToNext()) {
-            points.add(new Point(cursor));
+            points.add(cursorReader.read(cursor));
         }
-        cursor.close();
-        db.close();
         return points;
     }
 
     /**
-     * Returns all points from the {@link SQLiteDatabase} around the given {@link Point}.<br>
-     * Actually, the points are located in a square of size 2x{@param distance} and centered on the given {@param point}.
+     * Returns all points from the {@link SQLiteDatabase} around the given {@link Location}, within the given great-circle distance.<br>
+     * The descriptions are not read: use {@link #getPointDetails(long)}.
      * @param location the {@link Location} around which the points have to be located.
-     * @param distance the half-size of the square around the {@link Point} where the points have to be located.
-     * @return the {@link List<Point>} of all points located around the given {@link Point}.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located.
+     * @return the {@link List<Point>} of all points located around the given {@link Location}.
      */
     public List<Point> getPointsAround(Location location, int distance) {
-        // Delimit the square within which to find points
-        final String latMin = String.valueOf((location.getLatitude() - PointService.metersToDegrees(distance)) % 90);
-        final String latMax = String.valueOf((location.getLatitude() + PointService.metersToDegrees(distance)) % 90);
-        final String lonMin = String.valueOf((location.getLongitude() - PointService.metersToDegrees(distance)) % 180);
-        final String lonMax = String.valueOf((location.getLongitude() + PointService.metersToDegrees(distance)) % 180);
-        // Read database
         final SQLiteDatabase db = getReadableDatabase();
-        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, null,
-                ARDbContract.PointsColumns.COLUMN_LATITUDE + " >= ? AND " + ARDbContract.PointsColumns.COLUMN_LATITUDE + " <= ? AND " + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " >= ? AND " + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " <= ?",
-                new String[] {latMin, latMax, lonMin, lonMax}, null, null, null);
-        final List<Point> points = new ArrayList<>();
+        final Cursor cursor = queryPointsAround(db, mHasRTree && !mPendingBackfills.contains(VERSION_RTREE), !mPendingBackfills.contains(VERSION_CELL), !mPendingBackfills.contains(VERSION_TRIGONOMETRY),
+                location, distance, SQL_POINTS_LIGHT_COLUMNS, enabledLayersSql());
+        final List<Point> points = readPoints(cursor);
+        cursor.close();
+        for (PointsPack pointsPack : mPointsPacks) {
+            final Cursor packCursor = queryPointsAround(pointsPack.mDb, pointsPack.mHasRTree, true, true, location, distance, pointsLightColumns(pointsPack.mIdOffset), "");
+            points.addAll(readPoints(packCursor));
+            packCursor.close();
+        }
+        return points;
+    }
+
+    /**
+     * Loads all points from the {@link SQLiteDatabase} around the given {@link Location} into the given {@link PointStore}.<br>
+     * Same as {@link #getPointsAround(Location, int)}, but without creating any {@link Point} nor {@link Location} object: only ids, latitudes, longitudes, altitudes and names are read.<br>
+     * The results are not cached: wrap this helper in a {@link com.louisnard.argps.model.services.PointTileCache} to absorb repeated queries around the same spot.
+     * @param location the {@link Location} around which the points have to be located.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located.
+     * @param pointStore the {@link PointStore} to clear and fill.
+     * @return the filled {@link PointStore}.
+     */
+    @Override
+    public PointStore getPointsAround(Location location, int distance, PointStore pointStore) {
+        final SQLiteDatabase db = getReadableDatabase();
+        pointStore.clear();
+        // Names are read with the other columns rather than with one query per shown point
+        pointStore.setNameLoader(null);
+        final Cursor cursor = queryPointsAround(db, mHasRTree && !mPendingBackfills.contains(VERSION_RTREE), !mPendingBackfills.contains(VERSION_CELL), !mPendingBackfills.contains(VERSION_TRIGONOMETRY),
+                location, distance, pointsLightColumns(0), enabledLayersSql());
+        addPoints(cursor, pointStore);
+        cursor.close();
+        for (PointsPack pointsPack : mPointsPacks) {
+            final Cursor packCursor = queryPointsAround(pointsPack.mDb, pointsPack.mHasRTree, true, true, location, distance, pointsLightColumns(pointsPack.mIdOffset), "");
+            addPoints(packCursor, pointStore);
+            packCursor.close();
+        }
+        return pointStore;
+    }
+
+    /**
+     * Adds all rows of the given {@link Cursor}, which reads the lightweight columns, to the given {@link PointStore}.
+     * @param cursor the {@link Cursor}, which is not closed.
+     * @param pointStore the {@link PointStore} to fill.
+     */
+    private static void addPoints(Cursor cursor, PointStore pointStore) {
+        pointStore.ensureCapacity(pointStore.size() + cursor.getCount());
         while (cursor.moveToNext()) {
-            points.add(new Point(cursor));
+            pointStore.add(cursor.getLong(0), cursor.getDouble(2), cursor.getDouble(3), cursor.getInt(4), cursor.getString(1));
+        }
+    }
+
+    /**
+     * Returns the lightweight columns, prefixed by the points table alias "p.", with the ids offset by the given value.
+     * @param idOffset the value to add to the ids: 0 for the user database, {@link PointsPack#mIdOffset} for a points pack.
+     * @return the comma-separated columns: id, name, latitude, longitude, altitude.
+     */
+    private static String pointsLightColumns(long idOffset) {
+        return (idOffset == 0 ? "p." + ARDbContract.PointsColumns._ID : "(p." + ARDbContract.PointsColumns._ID + " + " + idOffset + ") AS " + ARDbContract.PointsColumns._ID)
+                + ", p." + ARDbContract.PointsColumns.COLUMN_NAME
+                + ", p." + ARDbContract.PointsColumns.COLUMN_LATITUDE + ", p." + ARDbContract.PointsColumns.COLUMN_LONGITUDE + ", p." + ARDbContract.PointsColumns.COLUMN_ALTITUDE;
+    }
+
+    /**
+     * Queries the points located within the given great-circle distance from the given {@link Location}.<br>
+     * The candidates are first found in the bounding box of the circle (see {@link GeoKernel#boundingBox(double, double, double)}), with the R*Tree spatial index if available,
+     * or with indexed range scans on the spatial cell ids covering the box otherwise. A box crossing the antimeridian is split into two boxes.
+     * The points of the box corners which are out of the circle are then discarded in SQL, using the precomputed sines and cosines of each point.<br>
+     * An index or column still being back-filled after a database upgrade must not be used meanwhile.
+     * @param db the {@link SQLiteDatabase} to read: the user database or a points pack.
+     * @param useRTree whether the R*Tree spatial index can be used.
+     * @param useCells whether the spatial cell ids can be used.
+     * @param useCircle whether the sines and cosines columns can be used.
+     * @param location the {@link Location} around which the points have to be located.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located.
+     * @param columns the comma-separated columns to return, prefixed by the points table alias "p.".
+     * @param filterSql an additional condition, starting with " AND", or an empty string.
+     * @return the {@link Cursor}, which must be closed after use.
+     */
+    private static Cursor queryPointsAround(SQLiteDatabase db, boolean useRTree, boolean useCells, boolean useCircle, Location location, int distance, String columns, String filterSql) {
+        // Delimit the box within which to find points
+        final double[] box = GeoKernel.boundingBox(location.getLatitude(), location.getLongitude(), distance);
+        final double latMin = box[0];
+        final double latMax = box[1];
+        final double lonMin = box[2];
+        final double lonMax = box[3];
+        final boolean crossesAntimeridian = lonMin > lonMax;
+
+        // Exact circle filter, unless the sines and cosines are still being back-filled
+        final String circleSql;
+        final String[] circleArgs;
+        if (useCircle) {
+            final double latitudeRadians = Math.toRadians(location.getLatitude());
+            final double longitudeRadians = Math.toRadians(location.getLongitude());
+            circleSql = SQL_AND_POINTS_IN_CIRCLE;
+            circleArgs = new String[] {String.valueOf(Math.sin(latitudeRadians)),
+                    String.valueOf(Math.cos(latitudeRadians) * Math.cos(longitudeRadians)), String.valueOf(Math.cos(latitudeRadians) * Math.sin(longitudeRadians)),
+                    String.valueOf(Math.cos(Math.min(Math.PI, (double) distance / PointService.EARTH_RADIUS)))};
+        } else {
+            circleSql = "";
+            circleArgs = new String[0];
+        }
+
+        if (useRTree) {
+            final String sql = "SELECT " + columns + SQL_WHERE_POINTS_IN_BOX_RTREE + circleSql + filterSql;
+            if (!crossesAntimeridian) {
+                return db.rawQuery(sql, concat(new String[] {String.valueOf(latMin), String.valueOf(latMax), String.valueOf(lonMin), String.valueOf(lonMax)}, circleArgs));
+            }
+            // One R*Tree search on each side of the antimeridian
+            return db.rawQuery(sql + " UNION ALL " + sql, concat(
+                    concat(new String[] {String.valueOf(latMin), String.valueOf(latMax), String.valueOf(lonMin), "180"}, circleArgs),
+                    concat(new String[] {String.valueOf(latMin), String.valueOf(latMax), "-180", String.valueOf(lonMax)}, circleArgs)));
+        }
+        // Cover the box with a few cell id ranges (on both sides of the antimeridian if needed), unless the cell ids are still being back-filled
+        final long[] ranges = useCells ? SpatialCell.coverBox(latMin, latMax, lonMin, lonMax) : new long[0];
+        final StringBuilder sql = new StringBuilder("SELECT ").append(columns).append(" FROM ").append(ARDbContract.PointsColumns.TABLE_NAME).append(" p WHERE (");
+        final String[] rangeArgs = new String[ranges.length];
+        for (int i = 0; i < ranges.length; i += 2) {
+            sql.append(i == 0 ? "" : " OR ").append("p.").append(ARDbContract.PointsColumns.COLUMN_CELL).append(" BETWEEN ? AND ?");
+            rangeArgs[i] = String.valueOf(ranges[i]);
+            rangeArgs[i + 1] = String.valueOf(ranges[i + 1]);
+        }
+        if (ranges.length == 0) {
+            sql.append("1");
+        }
+        sql.append(")").append(crossesAntimeridian ? SQL_AND_POINTS_IN_BOX_CROSSING_ANTIMERIDIAN : SQL_AND_POINTS_IN_BOX).append(circleSql).append(filterSql);
+        final String[] boxArgs = new String[] {String.valueOf(latMin), String.valueOf(latMax), String.valueOf(lonMin), String.valueOf(lonMax)};
+        return db.rawQuery(sql.toString(), concat(concat(rangeArgs, boxArgs), circleArgs));
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        final String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Returns the name of the point with the given id.
+     * @param id the point id.
+     * @return the name, or <b>null</b> if there is no such point.
+     */
+    @Override
+    public String getPointName(long id) {
+        SQLiteDatabase db = getReadableDatabase();
+        if (id >>> PACK_ID_SHIFT != 0) {
+            // The point belongs to a points pack
+            final PointsPack pointsPack = getPointsPack(id >>> PACK_ID_SHIFT);
+            if (pointsPack == null) {
+                return null;
+            }
+            db = pointsPack.mDb;
+            id -= pointsPack.mIdOffset;
+        }
+        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, new String[] {ARDbContract.PointsColumns.COLUMN_NAME},
+                ARDbContract.PointsColumns._ID + " = ?", new String[] {String.valueOf(id)}, null, null, null);
+        String name = null;
+        if (cursor.moveToFirst()) {
+            name = cursor.getString(0);
         }
         cursor.close();
-        db.close();
-        return points;
+        return name;
+    }
+
+    /**
+     * Returns the point with the given id with all its details, including its description which the other queries do not read.<br>
+     * Meant to be called on demand, for instance when the user selects a point.
+     * @param id the point id.
+     * @return the {@link Point}, or <b>null</b> if there is no such point.
+     */
+    public Point getPointDetails(long id) {
+        SQLiteDatabase db = getReadableDatabase();
+        long idOffset = 0;
+        if (id >>> PACK_ID_SHIFT != 0) {
+            // The point belongs to a points pack
+            final PointsPack pointsPack = getPointsPack(id >>> PACK_ID_SHIFT);
+            if (pointsPack == null) {
+                return null;
+            }
+            db = pointsPack.mDb;
+            idOffset = pointsPack.mIdOffset;
+        }
+        final Cursor cursor = db.rawQuery("SELECT " + pointsLightColumns(idOffset) + ", p." + ARDbContract.PointsColumns.COLUMN_DESCRIPTION
+                + " FROM " + ARDbContract.PointsColumns.TABLE_NAME + " p WHERE p." + ARDbContract.PointsColumns._ID + " = ?", new String[] {String.valueOf(id - idOffset)});
+        Point point = null;
+        if (cursor.moveToFirst()) {
+            point = new Point(cursor);
+        }
+        cursor.close();
+        return point;
     }
 
     /**
-     * Returns the points from the {@link SQLiteDatabase} whose name contains the given name.
+     * Returns the points from the {@link SQLiteDatabase} whose name contains the given name.<br>
+     * Scans the whole table: use {@link #searchPoints(String, Location, int)} for interactive searches.
      * @param name the name to search for.
      * @return the {@link List<Point>}.
      */
     public List<Point> findPointsByName(String name) {
-        // Read database
-        final SQLiteDatabase db = getReadableDatabase();
-        final Cursor cursor = db.query(ARDbContract.PointsColumns.TABLE_NAME, null, ARDbContract.PointsColumns.COLUMN_NAME + " LIKE '%" + name + "%'", null, null, null, null);
-        final List<Point> points = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            points.add(new Point(cursor));
+        final List<Point> points = findPointsByName(getReadableDatabase(), 0, name);
+        for (PointsPack pointsPack : mPointsPacks) {
+            points.addAll(findPointsByName(pointsPack.mDb, pointsPack.mIdOffset, name));
         }
+        return points;
+    }
+
+    private static List<Point> findPointsByName(SQLiteDatabase db, long idOffset, String name) {
+        final Cursor cursor = db.rawQuery("SELECT " + pointsLightColumns(idOffset) + SQL_FROM_POINTS_WITH_NAME_LIKE, new String[] {"%" + name + "%"});
+        final List<Point> points = readPoints(cursor);
         cursor.close();
-        db.close();
         return points;
     }
 
+    /**
+     * Searches the points from the {@link SQLiteDatabase} whose name or description contains words starting with the words of the given query, as typed in a search box.<br>
+     * For instance "mont bl" matches "Mont Blanc" and "Mont Blanc du Tacul". Uses the full-text search index if available, or a name scan otherwise.<br>
+     * Up to {@link #SEARCH_MAX_CANDIDATES} matches are then ranked: the points whose name is the query come first, then the points whose name starts with the query, then the other matches.
+     * Within each group, the points are sorted by ascending distance from {@param location} if any.
+     * @param query the query as typed by the user.
+     * @param location the {@link Location} to rank the matches by distance from, or <b>null</b>.
+     * @param limit the maximum number of points to return.
+     * @return the ranked {@link List<Point>}, empty if the query has no word.
+     */
+    public List<Point> searchPoints(String query, Location location, int limit) {
+        final String matchQuery = buildMatchQuery(query);
+        if (matchQuery == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        final List<Point> candidates = searchPoints(getReadableDatabase(), mHasFts && !mPendingBackfills.contains(VERSION_FTS), 0, matchQuery, query.trim());
+        for (PointsPack pointsPack : mPointsPacks) {
+            candidates.addAll(searchPoints(pointsPack.mDb, pointsPack.mHasFts, pointsPack.mIdOffset, matchQuery, query.trim()));
+        }
+        return rankPoints(candidates, query.trim().toLowerCase(), location, limit);
+    }
+
+    private static List<Point> searchPoints(SQLiteDatabase db, boolean useFts, long idOffset, String matchQuery, String name) {
+        if (!useFts) {
+            return findPointsByName(db, idOffset, name);
+        }
+        final Cursor cursor = db.rawQuery("SELECT " + pointsLightColumns(idOffset) + SQL_FROM_POINTS_MATCHING_FTS, new String[] {matchQuery, String.valueOf(SEARCH_MAX_CANDIDATES)});
+        final List<Point> points = readPoints(cursor);
+        cursor.close();
+        return points;
+    }
+
+    /**
+     * Builds a full-text search MATCH expression from a query as typed by the user: each word becomes a prefix token, and all of them must match.<br>
+     * Characters with a meaning in the MATCH syntax (quotes, stars, parentheses...) are dropped, so that any input is a valid expression.
+     * @param query the query as typed by the user.
+     * @return the MATCH expression, or <b>null</b> if the query has no word.
+     */
+    static String buildMatchQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        final StringBuilder matchQuery = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                matchQuery.append(matchQuery.length() == 0 ? "" : " ").append(word).append('*');
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Ranks the given points for {@link #searchPoints(String, Location, int)}.
+     * @param points the matching {@link Point}s.
+     * @param lowerCaseQuery the trimmed and lower case query.
+     * @param location the {@link Location} to rank the matches by distance from, or <b>null</b>.
+     * @param limit the maximum number of points to return.
+     * @return the ranked {@link List<Point>}.
+     */
+    private static List<Point> rankPoints(List<Point> points, String lowerCaseQuery, Location location, int limit) {
+        // Rank key of each point, computed once: the name match group, then the distance
+        final Integer[] order = new Integer[points.size()];
+        final int[] groups = new int[points.size()];
+        final double[] distances = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            final Point point = points.get(i);
+            final String name = point.getName() != null ? point.getName().toLowerCase() : "";
+            groups[i] = name.equals(lowerCaseQuery) ? 0 : (name.startsWith(lowerCaseQuery) ? 1 : 2);
+            distances[i] = location != null ? GeoKernel.distance(location.getLatitude(), location.getLongitude(), point.getLatitude(), point.getLongitude()) : 0;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (groups[a] != groups[b]) {
+                    return groups[a] < groups[b] ? -1 : 1;
+                }
+                return Double.compare(distances[a], distances[b]);
+            }
+        });
+        final List<Point> rankedPoints = new ArrayList<>(Math.min(limit, order.length));
+        for (int i = 0; i < order.length && i < limit; i++) {
+            rankedPoints.add(points.get(order[i]));
+        }
+        return rankedPoints;
+    }
+
     /**
      * Adds the given {@link Point} to the {@link SQLiteDatabase}.
      * @param point the {@link Point} to insert.
@@ -171,56 +1489,255 @@ public class ARDbHelper extends SQLiteOpenHelper {
      */
     public long addPoint(Point point) {
         final SQLiteDatabase db = getWritableDatabase();
-        final long result = insertPoint(point, db);
-        db.close();
+        final PointInserter pointInserter = new PointInserter(db, DEFAULT_LAYER_ID, false);
+        final long result;
+        // The index rows of a replaced point are deleted within the same transaction as the insertion
+        db.beginTransactionNonExclusive();
+        try {
+            result = pointInserter.insert(point);
+            if (result != -1) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+            pointInserter.close();
+        }
+        if (result != -1) {
+            notifyPointsChanged();
+        }
         return result;
     }
 
     /**
-     * Adds the given {@link List<Point>} to the {@link SQLiteDatabase}.
+     * Sets the tolerance of the duplicate detection of the bulk insertions: a point closer than the tolerance to an existing point of the same layer, or to an already inserted point, is skipped.<br>
+     * With the default tolerance of 0, only the points at the same position and altitude are skipped, by the uniqueness constraint of the layer alone.
+     * A tolerance of a few meters merges the same points coming from different sources, whatever their altitudes.
+     * @param tolerance the tolerance in meters.
+     */
+    public void setDuplicateTolerance(double tolerance) {
+        mDuplicateTolerance = tolerance;
+    }
+
+    /**
+     * Adds the given {@link List<Point>} to the {@link SQLiteDatabase}, skipping the duplicates (see {@link #setDuplicateTolerance(double)}).<br>
+     * Points are inserted with a single reusable compiled statement, in transactions committed every {@link #POINTS_PER_INSERT_TRANSACTION} points.
      * @param points the {@link List<Point>} to insert.
-     * @return the number of successfully inserted rows, or -1 if an error occurred on one or many rows.
+     * @return the number of successfully inserted rows.
      */
     public long addPoints(List<Point> points) {
+        final long[] counts = new long[3];
+        insertPoints(points, DEFAULT_LAYER_ID, newDuplicatePointFilter(DEFAULT_LAYER_ID), counts, points.size(), null, true);
+        return counts[0];
+    }
+
+    // Returns null with a zero tolerance: the uniqueness constraint already skips the points at the same position and altitude, exactly
+    private DuplicatePointFilter newDuplicatePointFilter(long layerId) {
+        final double tolerance = mDuplicateTolerance;
+        return tolerance > 0 ? new DuplicatePointFilter(getWritableDatabase(), layerId, tolerance) : null;
+    }
+
+    /**
+     * Inserts the given {@link List<Point>} in transactions committed every {@link #POINTS_PER_INSERT_TRANSACTION} points.
+     * @param points the {@link List<Point>} to insert.
+     * @param layerId the id of the layer to insert the points into.
+     * @param duplicatePointFilter the {@link DuplicatePointFilter} detecting the points to skip, shared by all the calls of a same operation, or <b>null</b> to only skip the points violating the uniqueness constraint.
+     * @param counts the number of successfully inserted points, the number of failed points and the number of duplicate points, incremented by this method.
+     * @param totalPointsNumber the total number of points of the whole operation, used to report the progress.
+     * @param task the {@link InsertPointsTask} to publish the progress to after each transaction, or <b>null</b>.
+     * @param notifiesChanges <b>true</b> to notify the change after each transaction. <b>false</b> if the layer is hidden until the whole operation completes.
+     */
+    private void insertPoints(List<Point> points, long layerId, DuplicatePointFilter duplicatePointFilter, long[] counts, long totalPointsNumber, InsertPointsTask task, boolean notifiesChanges) {
         final SQLiteDatabase db = getWritableDatabase();
-        long result = 0;
-        for (Point point : points) {
-            if (insertPoint(point, db) != -1 && result != -1) {
-                result++;
-            } else {
-                result = -1;
+        final PointInserter pointInserter = new PointInserter(db, layerId, true);
+        try {
+            int i = 0;
+            while (i < points.size()) {
+                final int end = Math.min(i + POINTS_PER_INSERT_TRANSACTION, points.size());
+                db.beginTransactionNonExclusive();
+                try {
+                    for (; i < end; i++) {
+                        final Point point = points.get(i);
+                        if (duplicatePointFilter != null && duplicatePointFilter.isDuplicate(point.getLatitude(), point.getLongitude())) {
+                            counts[2]++;
+                            continue;
+                        }
+                        final long id = pointInserter.insert(point);
+                        if (id == PointInserter.IGNORED) {
+                            counts[2]++;
+                        } else if (id != -1) {
+                            counts[0]++;
+                        } else {
+                            counts[1]++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Within an enclosing transaction, nothing is committed yet: its owner notifies the change once committed
+                if (notifiesChanges && !db.inTransaction()) {
+                    notifyPointsChanged();
+                }
+                if (task != null) {
+                    task.publishInsertionProgress(counts[0], counts[2], counts[1], totalPointsNumber);
+                }
             }
+        } finally {
+            pointInserter.close();
         }
-        db.close();
-        return result;
     }
 
     /**
-     * Inserts a {@link Point} in the given {@link SQLiteDatabase}.<br>
-     * The {@link SQLiteDatabase} must be closed after calling this function.
-     * @param point the {@link List<Point>} to insert.
-     * @param db the {@link SQLiteDatabase} to insert the point into.
-     * @return the row id of the newly inserted row, or -1 if an error occurred.
+     * Inserts {@link Point}s in a {@link SQLiteDatabase} using reusable compiled statements, keeping the spatial indexes in sync.<br>
+     * Must be closed after use.
      */
-    private long insertPoint(Point point, SQLiteDatabase db) {
-        final ContentValues values = new ContentValues();
-        values.put(ARDbContract.PointsColumns.COLUMN_NAME, point.getName());
-        values.put(ARDbContract.PointsColumns.COLUMN_DESCRIPTION, point.getDescription());
-        values.put(ARDbContract.PointsColumns.COLUMN_LATITUDE, point.getLatitude());
-        values.put(ARDbContract.PointsColumns.COLUMN_LONGITUDE, point.getLongitude());
-        values.put(ARDbContract.PointsColumns.COLUMN_ALTITUDE, point.getAltitude());
-        final long result = db.insert(ARDbContract.PointsColumns.TABLE_NAME, null, values);
-        if (result == -1) {
-            if (BuildConfig.DEBUG) Log.d(TAG, "Error inserting the point: \"" + point.getName() + "\" into the database");
+    private class PointInserter {
+
+        // Returned by insert() when a point is ignored because of the uniqueness constraint
+        static final long IGNORED = 0;
+
+        private final boolean mIgnoresConflicts;
+        private final SQLiteStatement mPointStatement;
+        private final SQLiteStatement mRTreeStatement;
+        private final SQLiteStatement mFtsStatement;
+        // Only used when replacing: the id of the point of the layer at the same position, and the deletion of its R*Tree and full-text search rows
+        private final SQLiteStatement mReplacedIdStatement;
+        private final SQLiteStatement mRTreeDeleteStatement;
+        private final SQLiteStatement mFtsDeleteStatement;
+
+        /**
+         * Constructs a new instance of {@link PointInserter}.
+         * @param db the {@link SQLiteDatabase}.
+         * @param layerId the id of the layer to insert the points into.
+         * @param ignoresConflicts <b>true</b> to ignore the points violating the uniqueness constraint, which then costs no exception. <b>false</b> to replace the existing points, as the table does by default.
+         *                         The replaced point gets a new row id, so the index rows of its old row id are deleted: this costs one more lookup per point.
+         */
+        PointInserter(SQLiteDatabase db, long layerId, boolean ignoresConflicts) {
+            mIgnoresConflicts = ignoresConflicts;
+            mPointStatement = db.compileStatement((ignoresConflicts ? "INSERT OR IGNORE INTO " : "INSERT INTO ") + ARDbContract.PointsColumns.TABLE_NAME + " ("
+                    + ARDbContract.PointsColumns.COLUMN_NAME + "," + ARDbContract.PointsColumns.COLUMN_DESCRIPTION + ","
+                    + ARDbContract.PointsColumns.COLUMN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_ALTITUDE + ","
+                    + ARDbContract.PointsColumns.COLUMN_CELL + "," + ARDbContract.PointsColumns.COLUMN_SIN_LATITUDE + "," + ARDbContract.PointsColumns.COLUMN_COS_LATITUDE + ","
+                    + ARDbContract.PointsColumns.COLUMN_SIN_LONGITUDE + "," + ARDbContract.PointsColumns.COLUMN_COS_LONGITUDE + ","
+                    + ARDbContract.PointsColumns.COLUMN_LAYER_ID + ") VALUES (?,?,?,?,?,?,?,?,?,?,?)");
+            // The layer id is the same for all points, and clearBindings() is never called
+            mPointStatement.bindLong(11, layerId);
+            mRTreeStatement = mHasRTree ? db.compileStatement("INSERT OR REPLACE INTO " + ARDbContract.PointsRTreeColumns.TABLE_NAME + " VALUES (?,?,?,?,?)") : null;
+            mFtsStatement = mHasFts ? db.compileStatement("INSERT OR REPLACE INTO " + ARDbContract.PointsFtsColumns.TABLE_NAME + " ("
+                    + ARDbContract.PointsFtsColumns.COLUMN_DOCID + "," + ARDbContract.PointsFtsColumns.COLUMN_NAME + "," + ARDbContract.PointsFtsColumns.COLUMN_DESCRIPTION + ") VALUES (?,?,?)") : null;
+            mReplacedIdStatement = !ignoresConflicts && (mHasRTree || mHasFts) ? db.compileStatement("SELECT " + ARDbContract.PointsColumns._ID + " FROM " + ARDbContract.PointsColumns.TABLE_NAME
+                    + " WHERE " + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = ? AND " + ARDbContract.PointsColumns.COLUMN_LATITUDE + " = ? AND " + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " = ?"
+                    + " AND " + ARDbContract.PointsColumns.COLUMN_ALTITUDE + " = ?") : null;
+            if (mReplacedIdStatement != null) {
+                mReplacedIdStatement.bindLong(1, layerId);
+            }
+            mRTreeDeleteStatement = mReplacedIdStatement != null && mHasRTree ? db.compileStatement("DELETE FROM " + ARDbContract.PointsRTreeColumns.TABLE_NAME + " WHERE " + ARDbContract.PointsRTreeColumns._ID + " = ?") : null;
+            mFtsDeleteStatement = mReplacedIdStatement != null && mHasFts ? db.compileStatement("DELETE FROM " + ARDbContract.PointsFtsColumns.TABLE_NAME + " WHERE " + ARDbContract.PointsFtsColumns.COLUMN_DOCID + " = ?") : null;
+        }
+
+        /**
+         * Inserts a {@link Point}.
+         * @param point the {@link Point} to insert.
+         * @return the row id of the newly inserted row, {@link #IGNORED} if the point has been ignored, or -1 if an error occurred.
+         */
+        long insert(Point point) {
+            try {
+                bindStringOrNull(mPointStatement, 1, point.getName());
+                bindStringOrNull(mPointStatement, 2, point.getDescription());
+                mPointStatement.bindDouble(3, point.getLatitude());
+                mPointStatement.bindDouble(4, point.getLongitude());
+                mPointStatement.bindLong(5, point.getAltitude());
+                mPointStatement.bindLong(6, SpatialCell.cellId(point.getLatitude(), point.getLongitude()));
+                bindTrigonometry(mPointStatement, 7, point.getLatitude(), point.getLongitude());
+                if (mReplacedIdStatement != null) {
+                    deleteReplacedPointIndexRows(point);
+                }
+                final long id = mPointStatement.executeInsert();
+                if (id == -1 && mIgnoresConflicts) {
+                    // No row inserted without any error: the point violates the uniqueness constraint
+                    return IGNORED;
+                }
+                if (id != -1 && mRTreeStatement != null) {
+                    // Keep the R*Tree spatial index in sync
+                    mRTreeStatement.bindLong(1, id);
+                    mRTreeStatement.bindDouble(2, point.getLatitude());
+                    mRTreeStatement.bindDouble(3, point.getLatitude());
+                    mRTreeStatement.bindDouble(4, point.getLongitude());
+                    mRTreeStatement.bindDouble(5, point.getLongitude());
+                    mRTreeStatement.executeInsert();
+                }
+                if (id != -1 && mFtsStatement != null) {
+                    // Keep the full-text search index in sync
+                    mFtsStatement.bindLong(1, id);
+                    bindStringOrNull(mFtsStatement, 2, point.getName());
+                    bindStringOrNull(mFtsStatement, 3, point.getDescription());
+                    mFtsStatement.executeInsert();
+                }
+                return id;
+            } catch (SQLException e) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Error inserting the point: \"" + point.getName() + "\" into the database");
+                return -1;
+            }
+        }
+
+        /**
+         * Deletes the index rows of the point of the same layer which the given {@link Point} is about to replace, if any: the table deletes the replaced row, but not its index rows.
+         * @param point the {@link Point} about to be inserted.
+         */
+        private void deleteReplacedPointIndexRows(Point point) {
+            mReplacedIdStatement.bindDouble(2, point.getLatitude());
+            mReplacedIdStatement.bindDouble(3, point.getLongitude());
+            mReplacedIdStatement.bindLong(4, point.getAltitude());
+            final long replacedId;
+            try {
+                replacedId = mReplacedIdStatement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // No point at the same position
+                return;
+            }
+            if (mRTreeDeleteStatement != null) {
+                mRTreeDeleteStatement.bindLong(1, replacedId);
+                mRTreeDeleteStatement.executeUpdateDelete();
+            }
+            if (mFtsDeleteStatement != null) {
+                mFtsDeleteStatement.bindLong(1, replacedId);
+                mFtsDeleteStatement.executeUpdateDelete();
+            }
+        }
+
+        void close() {
+            mPointStatement.close();
+            if (mRTreeStatement != null) {
+                mRTreeStatement.close();
+            }
+            if (mFtsStatement != null) {
+                mFtsStatement.close();
+            }
+            if (mReplacedIdStatement != null) {
+                mReplacedIdStatement.close();
+            }
+            if (mRTreeDeleteStatement != null) {
+                mRTreeDeleteStatement.close();
+            }
+            if (mFtsDeleteStatement != null) {
+                mFtsDeleteStatement.close();
+            }
+        }
+
+        private void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
+            }
         }
-        return result;
     }
 
     /**
-     * Adds the given {@link List<Point>} to the {@link SQLiteDatabase} asynchronously.
+     * Adds the given {@link List<Point>} to the {@link SQLiteDatabase} asynchronously.<br>
+     * The {@link ARDbHelperListener} is notified of the progress after each transaction, and when the operation completes.
      * @param points the {@link List<Point>} to insert.
-     * @param listener the {@link ARDbHelperListener} to notify when the operation completes.
-     * @return the number of successfully inserted rows, or -1 if an error occurred on one or many rows.
+     * @param listener the {@link ARDbHelperListener} to notify.
      */
     public void addPointsAsynchronously(List<Point> points, ARDbHelperListener listener) {
         InsertPointsAsynchronously insertPoints = new InsertPointsAsynchronously(points, listener);
@@ -228,28 +1745,122 @@ public class ARDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Insert {@link Point}s asynchronously.
+     * Adds the batches of {@link Point}s taken from the given {@link BlockingQueue} to the {@link SQLiteDatabase} asynchronously, as soon as they are produced.<br>
+     * The producer must put {@link #END_OF_POINTS} into the queue after the last batch to complete the operation, or {@link #END_OF_POINTS_ON_ERROR} to make it fail.
+     * The {@link ARDbHelperListener} is notified of the progress after each transaction, and when the operation completes.<br>
+     * Runs on {@link AsyncTask#THREAD_POOL_EXECUTOR}, so that the producer can itself be an {@link AsyncTask}.
+     * @param queue the {@link BlockingQueue} to take the batches of {@link Point}s from.
+     * The points are inserted into a new hidden layer, committed every {@link #POINTS_PER_INSERT_TRANSACTION} points, which replaces the previous layer of the same source once all points have been produced.
+     * On {@link #END_OF_POINTS_ON_ERROR}, the new layer is deleted and the previous one is kept.
+     * @param sourceId the stable id of the source of the points, such as the {@link android.net.Uri} of the GPX file, identifying the layer to replace.
+     * @param layerName the name of the layer, shown to the user.
+     * @param totalPointsNumber the expected total number of points, used to report the progress.
+     * @param listener the {@link ARDbHelperListener} to notify.
      */
-    private class InsertPointsAsynchronously extends AsyncTask<Void, Void, Void> {
+    public void addPointsAsynchronously(BlockingQueue<List<Point>> queue, String sourceId, String layerName, long totalPointsNumber, ARDbHelperListener listener) {
+        InsertQueuedPointsAsynchronously insertPoints = new InsertQueuedPointsAsynchronously(queue, sourceId, layerName, totalPointsNumber, listener);
+        insertPoints.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Base class for inserting {@link Point}s asynchronously and notifying an {@link ARDbHelperListener}.
+     */
+    private abstract class InsertPointsTask extends AsyncTask<Void, Long, Void> {
 
-        private List<Point> mPoints;
         private ARDbHelperListener mListener;
-        private long mInsertedPointsNumber;
+        // The number of successfully inserted points, the number of failed points and the number of duplicate points
+        protected final long[] mCounts = new long[3];
+        // Whether the points could not all be produced
+        protected boolean mFailed;
+
+        InsertPointsTask(ARDbHelperListener listener) {
+            mListener = listener;
+        }
+
+        // Makes publishProgress() accessible from insertPoints()
+        void publishInsertionProgress(long inserted, long duplicate, long failed, long total) {
+            publishProgress(inserted, duplicate, failed, total);
+        }
+
+        @Override
+        protected void onProgressUpdate(Long... values) {
+            mListener.onPointsInsertionProgress(values[0], values[1], values[2], values[3]);
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            if (mFailed) {
+                mListener.onPointsInsertionFailed(mCounts[0] + mCounts[1] + mCounts[2]);
+            } else {
+                mListener.onPointsInserted(mCounts[0], mCounts[2], mCounts[1]);
+            }
+        }
+    }
+
+    /**
+     * Insert a {@link List<Point>} asynchronously.
+     */
+    private class InsertPointsAsynchronously extends InsertPointsTask {
+
+        private List<Point> mPoints;
 
         public InsertPointsAsynchronously (List<Point> points, ARDbHelperListener listener) {
+            super(listener);
             mPoints = points;
-            mListener = listener;
         }
 
         @Override
         protected Void doInBackground(Void... params) {
-            mInsertedPointsNumber = addPoints(mPoints);
+            insertPoints(mPoints, DEFAULT_LAYER_ID, newDuplicatePointFilter(DEFAULT_LAYER_ID), mCounts, mPoints.size(), this, true);
             return null;
         }
+    }
+
+    /**
+     * Insert batches of {@link Point}s taken from a {@link BlockingQueue} asynchronously.
+     */
+    private class InsertQueuedPointsAsynchronously extends InsertPointsTask {
+
+        private BlockingQueue<List<Point>> mQueue;
+        private String mSourceId;
+        private String mLayerName;
+        private long mTotalPointsNumber;
+
+        public InsertQueuedPointsAsynchronously (BlockingQueue<List<Point>> queue, String sourceId, String layerName, long totalPointsNumber, ARDbHelperListener listener) {
+            super(listener);
+            mQueue = queue;
+            mSourceId = sourceId;
+            mLayerName = layerName;
+            mTotalPointsNumber = totalPointsNumber;
+        }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            mListener.onPointsInserted(mInsertedPointsNumber);
+        protected Void doInBackground(Void... params) {
+            // The points are committed by chunks into a hidden layer, so that the write lock is released between chunks and concurrent readers keep seeing the previous points
+            final long layerId = createImportingLayer(mSourceId, mLayerName);
+            boolean committed = false;
+            try {
+                final DuplicatePointFilter duplicatePointFilter = newDuplicatePointFilter(layerId);
+                List<Point> batch;
+                while ((batch = mQueue.take()) != END_OF_POINTS && batch != END_OF_POINTS_ON_ERROR) {
+                    insertPoints(batch, layerId, duplicatePointFilter, mCounts, mTotalPointsNumber, this, false);
+                }
+                mFailed = batch == END_OF_POINTS_ON_ERROR;
+                if (!mFailed) {
+                    commitImportedLayer(layerId, mSourceId);
+                    committed = true;
+                }
+            } catch (InterruptedException e) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Points insertion interrupted");
+                mFailed = true;
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!committed) {
+                    if (BuildConfig.DEBUG) Log.d(TAG, "Points insertion into layer \"" + mLayerName + "\" discarded");
+                    deleteLayer(layerId);
+                }
+            }
+            return null;
         }
     }
-}
\ No newline at end of file
+}
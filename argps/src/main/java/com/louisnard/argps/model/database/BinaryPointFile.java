@@ -0,0 +1,285 @@
+package com.louisnard.argps.model.database;
+
+import android.location.Location;
+
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.services.GeoKernel;
+import com.louisnard.argps.model.services.SpatialCell;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Read-only {@link PointSource} backed by a compact binary file, memory-mapped with a {@link MappedByteBuffer}.<br>
+ *
+ * Meant for very large sets of points (millions), for which reading SQLite cursors costs more than the search itself.
+ * The file holds fixed-width records of quantized coordinates, sorted by {@link SpatialCell} cell id, and a directory of the coarse cells at level {@link #DIRECTORY_LEVEL} pointing to their first record.
+ * A search only reads the directory entries and the records of the cells intersecting the search radius, and allocates nothing per point: the names are kept apart in a string heap and only decoded on demand, through the {@link PointStore.NameLoader}.<br>
+ *
+ * File format, big-endian:
+ * <ul>
+ *     <li>Header: magic, version, number of points, directory level, number of directory entries, then the offsets of the directory, of the records and of the names heap (8 ints).</li>
+ *     <li>Directory: for each non-empty coarse cell, by ascending cell id: the cell id (long) and the index of its first record (int).</li>
+ *     <li>Records: for each point: latitude and longitude in 10<sup>-7</sup> degrees, altitude in meters, and offset of the name in the names heap or -1 (4 ints).</li>
+ *     <li>Names heap: for each name: its length (unsigned short) and its UTF-8 bytes.</li>
+ * </ul>
+ * The id of a point is the index of its record. Write a file with {@link #write(PointStore, File)} and open it with {@link #open(File)}.
+ *
+ * @author Alexandre Louisnard
+ */
+public class BinaryPointFile implements PointSource, PointStore.NameLoader {
+
+    // Constants
+    private static final int MAGIC = 0x41524750; // "ARGP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 * 4;
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 4;
+    private static final int RECORD_SIZE = 4 * 4;
+    // The coordinates are stored in 10^-7 degrees: about 1 cm
+    private static final double COORDINATE_SCALE = 1e7;
+    // The level of the directory cells: about 5 km x 10 km at the equator
+    private static final int DIRECTORY_LEVEL = 12;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer mBuffer;
+    private final int mPointsNumber;
+    private final int mDirectoryLevel;
+    private final int mDirectorySize;
+    private final int mDirectoryOffset;
+    private final int mRecordsOffset;
+    private final int mNamesOffset;
+
+    // Private constructor: use open()
+    private BinaryPointFile(MappedByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary point file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary point file version " + buffer.getInt(4));
+        }
+        mPointsNumber = buffer.getInt(8);
+        mDirectoryLevel = buffer.getInt(12);
+        mDirectorySize = buffer.getInt(16);
+        mDirectoryOffset = buffer.getInt(20);
+        mRecordsOffset = buffer.getInt(24);
+        mNamesOffset = buffer.getInt(28);
+        if (mDirectoryLevel < 0 || mDirectoryLevel > SpatialCell.LEVELS || mNamesOffset > buffer.capacity()
+                || mRecordsOffset + (long) mPointsNumber * RECORD_SIZE > mNamesOffset || mDirectoryOffset + (long) mDirectorySize * DIRECTORY_ENTRY_SIZE > mRecordsOffset) {
+            throw new IOException("Corrupted binary point file");
+        }
+    }
+
+    /**
+     * Opens a binary point file written by {@link #write(PointStore, File)}.<br>
+     * The file is mapped into memory, which costs no reading: its pages are only loaded when searched.
+     * @param file the file.
+     * @return the {@link BinaryPointFile}.
+     * @throws IOException if the file cannot be read or is not a valid binary point file.
+     */
+    public static BinaryPointFile open(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // The mapping remains valid after the channel is closed
+            return new BinaryPointFile(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the given points into a binary point file.
+     * @param points the {@link PointStore} holding the points. Their ids are not kept: the id of a point in the {@link BinaryPointFile} is the index of its record.
+     * @param file the file to write, replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(PointStore points, File file) throws IOException {
+        // Sort the points by the cell id of their quantized coordinates, as read back, so that the points of a cell are contiguous
+        final int pointsNumber = points.size();
+        final int[] latitudes = new int[pointsNumber];
+        final int[] longitudes = new int[pointsNumber];
+        final long[] cellIds = new long[pointsNumber];
+        final Integer[] order = new Integer[pointsNumber];
+        for (int i = 0; i < pointsNumber; i++) {
+            latitudes[i] = (int) Math.round(points.getLatitude(i) * COORDINATE_SCALE);
+            longitudes[i] = (int) Math.round(points.getLongitude(i) * COORDINATE_SCALE);
+            cellIds[i] = SpatialCell.cellId(latitudes[i] / COORDINATE_SCALE, longitudes[i] / COORDINATE_SCALE);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return cellIds[a] < cellIds[b] ? -1 : (cellIds[a] == cellIds[b] ? 0 : 1);
+            }
+        });
+
+        // Directory and names heap
+        final int shift = 2 * (SpatialCell.LEVELS - DIRECTORY_LEVEL);
+        final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        final DataOutputStream directory = new DataOutputStream(directoryBytes);
+        final ByteArrayOutputStream namesBytes = new ByteArrayOutputStream();
+        final DataOutputStream names = new DataOutputStream(namesBytes);
+        final int[] nameOffsets = new int[pointsNumber];
+        int directorySize = 0;
+        long lastCell = -1;
+        for (int record = 0; record < pointsNumber; record++) {
+            final int i = order[record];
+            final long cell = cellIds[i] >> shift;
+            if (cell != lastCell) {
+                directory.writeLong(cell);
+                directory.writeInt(record);
+                directorySize++;
+                lastCell = cell;
+            }
+            final String name = points.getName(i);
+            if (name == null) {
+                nameOffsets[record] = -1;
+            } else {
+                final byte[] bytes = name.getBytes(UTF_8);
+                final int length = Math.min(bytes.length, MAX_NAME_LENGTH);
+                nameOffsets[record] = names.size();
+                names.writeShort(length);
+                names.write(bytes, 0, length);
+            }
+        }
+
+        // File
+        final int directoryOffset = HEADER_SIZE;
+        final int recordsOffset = directoryOffset + directoryBytes.size();
+        final int namesOffset = recordsOffset + pointsNumber * RECORD_SIZE;
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(pointsNumber);
+            output.writeInt(DIRECTORY_LEVEL);
+            output.writeInt(directorySize);
+            output.writeInt(directoryOffset);
+            output.writeInt(recordsOffset);
+            output.writeInt(namesOffset);
+            directoryBytes.writeTo(output);
+            for (int record = 0; record < pointsNumber; record++) {
+                final int i = order[record];
+                output.writeInt(latitudes[i]);
+                output.writeInt(longitudes[i]);
+                output.writeInt(points.getAltitude(i));
+                output.writeInt(nameOffsets[record]);
+            }
+            namesBytes.writeTo(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Returns the number of points of this {@link BinaryPointFile}.
+     * @return the number of points.
+     */
+    public int size() {
+        return mPointsNumber;
+    }
+
+    @Override
+    public PointStore getPointsAround(Location location, int distance, PointStore pointStore) {
+        return getPointsAround(location.getLatitude(), location.getLongitude(), distance, pointStore);
+    }
+
+    /**
+     * Fills the given {@link PointStore} with the points located within the given distance from the given location.<br>
+     * The names are not decoded: they are loaded lazily through this {@link BinaryPointFile}, set as the {@link PointStore.NameLoader}.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param distance the distance in meters from the location within which the points have to be located.
+     * @param pointStore the {@link PointStore} to fill, cleared first.
+     * @return the same {@link PointStore}, for convenience.
+     */
+    public PointStore getPointsAround(double latitude, double longitude, double distance, PointStore pointStore) {
+        pointStore.clear();
+        pointStore.setNameLoader(this);
+        final double[] box = GeoKernel.boundingBox(latitude, longitude, distance);
+        final boolean crossesAntimeridian = box[2] > box[3];
+        // The cell id ranges covering the box, turned into directory cell ranges
+        final long[] ranges = SpatialCell.coverBox(box[0], box[1], box[2], box[3]);
+        final int shift = 2 * (SpatialCell.LEVELS - mDirectoryLevel);
+        long lastCell = -1;
+        for (int r = 0; r < ranges.length; r += 2) {
+            final long toCell = ranges[r + 1] >> shift;
+            // Consecutive ranges may share a directory cell, which must only be scanned once
+            int entry = findDirectoryEntry(Math.max(ranges[r] >> shift, lastCell + 1));
+            while (entry < mDirectorySize && getDirectoryCell(entry) <= toCell) {
+                final int end = entry + 1 < mDirectorySize ? getDirectoryFirstRecord(entry + 1) : mPointsNumber;
+                for (int record = getDirectoryFirstRecord(entry); record < end; record++) {
+                    final int offset = mRecordsOffset + record * RECORD_SIZE;
+                    final double pointLatitude = mBuffer.getInt(offset) / COORDINATE_SCALE;
+                    final double pointLongitude = mBuffer.getInt(offset + 4) / COORDINATE_SCALE;
+                    if (pointLatitude < box[0] || pointLatitude > box[1]
+                            || (crossesAntimeridian ? pointLongitude < box[2] && pointLongitude > box[3] : pointLongitude < box[2] || pointLongitude > box[3])
+                            || GeoKernel.distance(latitude, longitude, pointLatitude, pointLongitude) > distance) {
+                        continue;
+                    }
+                    pointStore.add(record, pointLatitude, pointLongitude, mBuffer.getInt(offset + 8));
+                }
+                lastCell = getDirectoryCell(entry);
+                entry++;
+            }
+        }
+        return pointStore;
+    }
+
+    @Override
+    public String getPointName(long id) {
+        if (id < 0 || id >= mPointsNumber) {
+            return null;
+        }
+        final int nameOffset = mBuffer.getInt(mRecordsOffset + (int) id * RECORD_SIZE + 12);
+        if (nameOffset < 0) {
+            return null;
+        }
+        final int offset = mNamesOffset + nameOffset;
+        final byte[] bytes = new byte[mBuffer.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mBuffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    // PointStore.NameLoader implementation
+    @Override
+    public String loadName(long id) {
+        return getPointName(id);
+    }
+
+    // Returns the index of the first directory entry whose cell is greater than or equal to the given cell
+    private int findDirectoryEntry(long cell) {
+        int low = 0;
+        int high = mDirectorySize;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getDirectoryCell(middle) < cell) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getDirectoryCell(int entry) {
+        return mBuffer.getLong(mDirectoryOffset + entry * DIRECTORY_ENTRY_SIZE);
+    }
+
+    private int getDirectoryFirstRecord(int entry) {
+        return mBuffer.getInt(mDirectoryOffset + entry * DIRECTORY_ENTRY_SIZE + 8);
+    }
+}
@@ -0,0 +1,185 @@
+package com.louisnard.argps.model.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.louisnard.argps.model.services.GeoKernel;
+import com.louisnard.argps.model.services.LongHashSet;
+import com.louisnard.argps.model.services.PointService;
+
+import java.util.Arrays;
+
+/**
+ * Detects, during an import, the points closer than a tolerance to a point already in the layer or already imported, so that they are skipped.<br>
+ *
+ * Only meant for a non-zero tolerance: the points at the exact same position and altitude are already skipped by the uniqueness constraint of the layer.
+ * Points less than the tolerance apart are merged whatever their altitudes, so that the same points coming from different sources are only imported once.<br>
+ * Positions are quantized into cells of the tolerance size, each holding the exact coordinates of its points: a point is only compared with the points of its cell and of the neighbouring cells,
+ * and only the points strictly closer than the tolerance are duplicates.<br>
+ * The existing points are loaded lazily, one coarse tile at a time, the first time an imported point falls into the tile: an import into a given area only reads the existing points of that area.
+ *
+ * @author Alexandre Louisnard
+ */
+class DuplicatePointFilter {
+
+    // Constants
+    // The size of the tiles whose existing points are loaded at once: about 11 km
+    private static final double TILE_DEGREES = 0.1;
+    private static final double METERS_PER_DEGREE = Math.PI * PointService.EARTH_RADIUS / 180;
+    private static final int DEFAULT_CAPACITY = 16;
+    // The cells are grown when more than half full, to keep the probe sequences short
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    private final SQLiteDatabase mDb;
+    private final long mLayerId;
+    private final double mTolerance;
+    private final double mCellDegrees;
+    private final long mLongitudeCells;
+    private final LongHashSet mLoadedTiles = new LongHashSet();
+
+    // Open addressing hash table from the cell keys to the index of the last point of the cell, -1 marking the empty slots
+    private long[] mCellKeys = new long[DEFAULT_CAPACITY];
+    private int[] mCellHeads = newHeads(DEFAULT_CAPACITY);
+    private int mCellsNumber;
+    // The registered points, each one linked to the previous point of its cell, or -1
+    private double[] mLatitudes = new double[DEFAULT_CAPACITY];
+    private double[] mLongitudes = new double[DEFAULT_CAPACITY];
+    private int[] mPreviousPoints = new int[DEFAULT_CAPACITY];
+    private int mPointsNumber;
+
+    /**
+     * Constructs a new instance of {@link DuplicatePointFilter}.
+     * @param db the {@link SQLiteDatabase} to load the existing points from.
+     * @param layerId the id of the layer the points are imported into: the points of the other layers are never duplicates.
+     * @param tolerance the distance in meters under which two points are duplicates. Must be positive.
+     */
+    DuplicatePointFilter(SQLiteDatabase db, long layerId, double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("The tolerance must be positive: " + tolerance);
+        }
+        mDb = db;
+        mLayerId = layerId;
+        mTolerance = tolerance;
+        mCellDegrees = tolerance / METERS_PER_DEGREE;
+        mLongitudeCells = (long) Math.ceil(360 / mCellDegrees);
+    }
+
+    /**
+     * Returns whether a point is a duplicate and, if not, registers it so that the next points closer than the tolerance are.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @return <b>true</b> if the point is a duplicate and should be skipped.
+     */
+    boolean isDuplicate(double latitude, double longitude) {
+        loadTile(latitude, longitude);
+        final long latitudeCell = latitudeCell(latitude);
+        final long longitudeCell = longitudeCell(longitude);
+        final long longitudeSpan = longitudeSpan(Math.abs(latitude) + mCellDegrees);
+        for (long i = latitudeCell - 1; i <= latitudeCell + 1; i++) {
+            for (long j = longitudeCell - longitudeSpan; j <= longitudeCell + longitudeSpan; j++) {
+                for (int k = mCellHeads[slot(key(i, j))]; k != -1; k = mPreviousPoints[k]) {
+                    if (GeoKernel.distance(latitude, longitude, mLatitudes[k], mLongitudes[k]) < mTolerance) {
+                        return true;
+                    }
+                }
+            }
+        }
+        register(latitude, longitude);
+        return false;
+    }
+
+    // Loads the existing points of the layer in the tile containing the given position, with a margin of the tolerance for the neighbours, unless already done.
+    // The box query only reads the uniqueness constraint index of the points table, which starts with the layer id and the latitude: unlike the cell ids, it never depends on a pending back-fill.
+    private void loadTile(double latitude, double longitude) {
+        final long tileLatitude = (long) Math.floor((latitude + 90) / TILE_DEGREES);
+        final long tileLongitude = (long) Math.floor((longitude + 180) / TILE_DEGREES);
+        if (!mLoadedTiles.add((tileLatitude << 32) | tileLongitude)) {
+            return;
+        }
+        final double latMin = Math.max(-90, tileLatitude * TILE_DEGREES - 90 - mCellDegrees);
+        final double latMax = Math.min(90, (tileLatitude + 1) * TILE_DEGREES - 90 + mCellDegrees);
+        final double longitudeMargin = mCellDegrees * longitudeSpan(Math.max(Math.abs(latMin), Math.abs(latMax)));
+        final double lonMin = Math.max(-180, tileLongitude * TILE_DEGREES - 180 - longitudeMargin);
+        final double lonMax = Math.min(180, (tileLongitude + 1) * TILE_DEGREES - 180 + longitudeMargin);
+        final Cursor cursor = mDb.rawQuery("SELECT " + ARDbContract.PointsColumns.COLUMN_LATITUDE + ", " + ARDbContract.PointsColumns.COLUMN_LONGITUDE
+                + " FROM " + ARDbContract.PointsColumns.TABLE_NAME + " WHERE " + ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = ?"
+                + " AND " + ARDbContract.PointsColumns.COLUMN_LATITUDE + " BETWEEN ? AND ? AND " + ARDbContract.PointsColumns.COLUMN_LONGITUDE + " BETWEEN ? AND ?",
+                new String[] {String.valueOf(mLayerId), String.valueOf(latMin), String.valueOf(latMax), String.valueOf(lonMin), String.valueOf(lonMax)});
+        while (cursor.moveToNext()) {
+            register(cursor.getDouble(0), cursor.getDouble(1));
+        }
+        cursor.close();
+    }
+
+    // Adds a point to its cell
+    private void register(double latitude, double longitude) {
+        if (mPointsNumber == mLatitudes.length) {
+            mLatitudes = Arrays.copyOf(mLatitudes, 2 * mPointsNumber);
+            mLongitudes = Arrays.copyOf(mLongitudes, 2 * mPointsNumber);
+            mPreviousPoints = Arrays.copyOf(mPreviousPoints, 2 * mPointsNumber);
+        }
+        final long key = key(latitudeCell(latitude), longitudeCell(longitude));
+        final int slot = slot(key);
+        if (mCellHeads[slot] == -1) {
+            mCellKeys[slot] = key;
+            mCellsNumber++;
+        }
+        mLatitudes[mPointsNumber] = latitude;
+        mLongitudes[mPointsNumber] = longitude;
+        mPreviousPoints[mPointsNumber] = mCellHeads[slot];
+        mCellHeads[slot] = mPointsNumber++;
+        if (mCellsNumber > mCellKeys.length * MAX_LOAD_FACTOR) {
+            growCells();
+        }
+    }
+
+    // Returns the slot of the given cell key, or the empty slot where it should be added
+    private int slot(long key) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(mCellKeys.length)));
+        while (mCellHeads[slot] != -1 && mCellKeys[slot] != key) {
+            slot = (slot + 1) & (mCellKeys.length - 1);
+        }
+        return slot;
+    }
+
+    private void growCells() {
+        final long[] oldKeys = mCellKeys;
+        final int[] oldHeads = mCellHeads;
+        mCellKeys = new long[2 * oldKeys.length];
+        mCellHeads = newHeads(2 * oldHeads.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != -1) {
+                final int slot = slot(oldKeys[i]);
+                mCellKeys[slot] = oldKeys[i];
+                mCellHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    private static int[] newHeads(int capacity) {
+        final int[] heads = new int[capacity];
+        Arrays.fill(heads, -1);
+        return heads;
+    }
+
+    private long latitudeCell(double latitude) {
+        return (long) Math.floor((latitude + 90) / mCellDegrees);
+    }
+
+    private long longitudeCell(double longitude) {
+        return (long) Math.floor((longitude + 180) / mCellDegrees);
+    }
+
+    // Returns the number of longitude cells to check on each side to cover the tolerance up to the given absolute latitude, where a longitude cell is narrower than the tolerance
+    private long longitudeSpan(double absoluteLatitude) {
+        final double cosLatitude = Math.cos(Math.toRadians(Math.min(90, absoluteLatitude)));
+        final long halfCircle = mLongitudeCells / 2 + 1;
+        return cosLatitude * halfCircle > 1 ? Math.min(halfCircle, (long) Math.ceil(1 / cosLatitude)) : halfCircle;
+    }
+
+    // Packs the cell coordinates into a single key, wrapping the longitude around the antimeridian
+    private long key(long latitudeCell, long longitudeCell) {
+        final long wrappedLongitudeCell = ((longitudeCell % mLongitudeCells) + mLongitudeCells) % mLongitudeCells;
+        return (latitudeCell << 32) | wrappedLongitudeCell;
+    }
+}
@@ -0,0 +1,52 @@
+package com.louisnard.argps.model.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * A step of the migration of the database schema to a given version, run by {@link ARDbHelper}.<br>
+ *
+ * {@link #migrate(SQLiteDatabase)} makes the schema changes. It must be cheap, since it runs within the blocking {@link SQLiteOpenHelper#onUpgrade(SQLiteDatabase, int, int)} transaction, and idempotent, since it may run on a database which already has some of the changes.<br>
+ * The expensive work over the existing points, such as back-filling a new index or a derived column, goes into {@link #backfill(SQLiteDatabase, long, long)}.
+ * It runs afterwards on a background thread, by chunks of points committed one at a time, and resumes after the last committed chunk if the application is killed meanwhile.
+ *
+ * @author Alexandre Louisnard
+ */
+abstract class Migration {
+
+    private final int mVersion;
+
+    /**
+     * Constructs a new instance of {@link Migration}.
+     * @param version the database version this {@link Migration} migrates to.
+     */
+    Migration(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * Gets the database version this {@link Migration} migrates to.
+     * @return the version.
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Makes the schema changes of this {@link Migration}. Must be cheap and idempotent.
+     * @param db the {@link SQLiteDatabase}, within the upgrade transaction.
+     * @return <b>true</b> if the existing points then need to be back-filled with {@link #backfill(SQLiteDatabase, long, long)}. <b>false</b> otherwise.
+     */
+    abstract boolean migrate(SQLiteDatabase db);
+
+    /**
+     * Back-fills the existing points whose id is greater than {@param fromId} and lower than or equal to {@param toId}.<br>
+     * Must be idempotent: a chunk which has not been committed runs again, and the points inserted after {@link #migrate(SQLiteDatabase)} are already filled.
+     * @param db the {@link SQLiteDatabase}, within the chunk transaction.
+     * @param fromId the id after which to back-fill, excluded.
+     * @param toId the id up to which to back-fill, included.
+     */
+    void backfill(SQLiteDatabase db, long fromId, long toId) {
+        // No back-fill by default
+    }
+}
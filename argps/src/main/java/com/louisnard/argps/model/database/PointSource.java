@@ -0,0 +1,30 @@
+package com.louisnard.argps.model.database;
+
+import android.location.Location;
+
+import com.louisnard.argps.model.objects.PointStore;
+
+/**
+ * Interface definition for a source of points which can be searched around a location, such as the {@link ARDbHelper} database or a {@link BinaryPointFile}.
+ *
+ * @author Alexandre Louisnard
+ */
+public interface PointSource {
+
+    /**
+     * Fills the given {@link PointStore} with the points located within the given distance from the given {@link Location}.<br>
+     * The {@link PointStore} is cleared first, and its arrays are reused. The names may be loaded lazily, through the {@link PointStore.NameLoader} set by the source.
+     * @param location the {@link Location} around which the points have to be located.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located.
+     * @param pointStore the {@link PointStore} to fill.
+     * @return the same {@link PointStore}, for convenience.
+     */
+    PointStore getPointsAround(Location location, int distance, PointStore pointStore);
+
+    /**
+     * Returns the name of the point with the given id.
+     * @param id the point id, as added to a {@link PointStore} by {@link #getPointsAround(Location, int, PointStore)}.
+     * @return the name, or <b>null</b> if there is no such point.
+     */
+    String getPointName(long id);
+}
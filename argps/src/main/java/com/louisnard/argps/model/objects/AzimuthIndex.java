@@ -0,0 +1,232 @@
+package com.louisnard.argps.model.objects;
+
+import java.util.Arrays;
+
+/**
+ * Index of points sorted by ascending azimuth, stored as primitive arrays: the azimuths as keys and the point indices (in a {@link PointStore} for instance) as values.<br>
+ * Contrary to a {@link java.util.SortedMap}, keys are not boxed and points sharing the exact same azimuth are all kept.<br>
+ * {@link #queryWindow(float, float, int[])} finds the points within an azimuth window by binary search, handling the 0°/360° wrap.<br>
+ * When the observer moves a little, {@link #update(float[], int)} repairs the nearly-sorted order in place instead of rebuilding the whole index.
+ *
+ * @author Alexandre Louisnard
+ */
+public class AzimuthIndex {
+
+    // Constants
+    // The maximum number of shifts per point allowed to repair the order incrementally, before falling back to a full rebuild
+    private static final int MAX_SHIFTS_PER_POINT_FOR_UPDATE = 8;
+
+    // Attributes
+    private int mSize;
+    private float[] mAzimuths = new float[0];
+    private int[] mIndices = new int[0];
+    // Sort buffer, reused between builds
+    private long[] mSortBuffer = new long[0];
+
+    /**
+     * Builds this {@link AzimuthIndex} from the given azimuths, replacing its previous content.
+     * @param azimuths the azimuths in degrees, from 0° to 360°, indexed by point index.
+     * @param count the number of points, i.e. the number of azimuths to read.
+     */
+    public void build(float[] azimuths, int count) {
+        ensureCapacity(count);
+        // Sort (azimuth, index) pairs packed into longs: non-negative floats keep their order when compared as int bits
+        for (int i = 0; i < count; i++) {
+            mSortBuffer[i] = ((long) Float.floatToIntBits(getValidAzimuth(azimuths[i])) << 32) | i;
+        }
+        Arrays.sort(mSortBuffer, 0, count);
+        for (int position = 0; position < count; position++) {
+            final long packed = mSortBuffer[position];
+            mAzimuths[position] = Float.intBitsToFloat((int) (packed >>> 32));
+            mIndices[position] = (int) packed;
+        }
+        mSize = count;
+    }
+
+    /**
+     * Updates this {@link AzimuthIndex} with new azimuths for the same points, for instance after a small move of the observer.<br>
+     * The azimuths are refreshed in place and the order, which is expected to be nearly unchanged, is repaired with an adaptive insertion pass costing O(n + number of shifts).<br>
+     * If the number of points has changed or the order has changed too much, the index is fully rebuilt with {@link #build(float[], int)}.
+     * @param azimuths the new azimuths in degrees, from 0° to 360°, indexed by point index like when the index was built.
+     * @param count the number of points, i.e. the number of azimuths to read.
+     * @return the number of points that have been moved to repair the order, or -1 if the index has been fully rebuilt.
+     */
+    public int update(float[] azimuths, int count) {
+        if (count != mSize) {
+            build(azimuths, count);
+            return -1;
+        }
+        // Refresh the azimuths in place
+        for (int position = 0; position < mSize; position++) {
+            mAzimuths[position] = getValidAzimuth(azimuths[mIndices[position]]);
+        }
+        // Repair the order with an insertion pass, within a budget of shifts
+        final long maxShifts = (long) MAX_SHIFTS_PER_POINT_FOR_UPDATE * mSize;
+        long shifts = 0;
+        int movedPoints = 0;
+        for (int position = 1; position < mSize; position++) {
+            final float azimuth = mAzimuths[position];
+            if (mAzimuths[position - 1] <= azimuth) {
+                continue;
+            }
+            final int index = mIndices[position];
+            int insertPosition = position;
+            while (insertPosition > 0 && mAzimuths[insertPosition - 1] > azimuth) {
+                mAzimuths[insertPosition] = mAzimuths[insertPosition - 1];
+                mIndices[insertPosition] = mIndices[insertPosition - 1];
+                insertPosition--;
+            }
+            mAzimuths[insertPosition] = azimuth;
+            mIndices[insertPosition] = index;
+            movedPoints++;
+            shifts += position - insertPosition;
+            if (shifts > maxShifts) {
+                build(azimuths, count);
+                return -1;
+            }
+        }
+        return movedPoints;
+    }
+
+    /**
+     * Replaces the content of this {@link AzimuthIndex} with a copy of the given {@link AzimuthIndex}, for instance to update it without modifying an index being read by another thread.
+     * @param azimuthIndex the {@link AzimuthIndex} to copy.
+     */
+    public void copyFrom(AzimuthIndex azimuthIndex) {
+        ensureCapacity(azimuthIndex.mSize);
+        System.arraycopy(azimuthIndex.mAzimuths, 0, mAzimuths, 0, azimuthIndex.mSize);
+        System.arraycopy(azimuthIndex.mIndices, 0, mIndices, 0, azimuthIndex.mSize);
+        mSize = azimuthIndex.mSize;
+    }
+
+    /**
+     * Removes all points from this {@link AzimuthIndex}.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    // Getters
+    /**
+     * Returns the number of points in this {@link AzimuthIndex}.
+     * @return the number of points.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the azimuth at the given sorted position.
+     * @param position the position, from 0 to {@link #size()} - 1.
+     * @return the azimuth in degrees.
+     */
+    public float getAzimuth(int position) {
+        return mAzimuths[position];
+    }
+
+    /**
+     * Gets the point index at the given sorted position.
+     * @param position the position, from 0 to {@link #size()} - 1.
+     * @return the point index.
+     */
+    public int getIndex(int position) {
+        return mIndices[position];
+    }
+
+    // Queries
+    /**
+     * Finds the points whose azimuth is comprised between the given azimuths, going clockwise from {@param fromAzimuth} to {@param toAzimuth}.<br>
+     * Azimuths may be out of the 0° - 360° range (for instance -20° to 30°): the window wrapping around North is handled.<br>
+     * The sorted positions of these points are written into {@param result} by ascending azimuth, starting from {@param fromAzimuth}: use {@link #getIndex(int)} and {@link #getAzimuth(int)} to read them.
+     * @param fromAzimuth the azimuth of the left side of the window, in degrees.
+     * @param toAzimuth the azimuth of the right side of the window, in degrees.
+     * @param result the array to write the sorted positions into. Must hold at least {@link #size()} elements.
+     * @return the number of positions written into {@param result}.
+     */
+    public int queryWindow(float fromAzimuth, float toAzimuth, int[] result) {
+        if (mSize == 0 || toAzimuth < fromAzimuth) {
+            return 0;
+        }
+        if (toAzimuth - fromAzimuth >= 360) {
+            return fillPositions(result, 0, 0, mSize);
+        }
+        final float from = getValidAzimuth(fromAzimuth);
+        final float to = getValidAzimuth(toAzimuth);
+        final int fromPosition = lowerBound(from);
+        if (from <= to) {
+            return fillPositions(result, 0, fromPosition, upperBound(to));
+        } else {
+            // The window wraps around North
+            final int count = fillPositions(result, 0, fromPosition, mSize);
+            return count + fillPositions(result, count, 0, upperBound(to));
+        }
+    }
+
+    /**
+     * Returns the first sorted position whose azimuth is greater than or equal to the given azimuth.
+     * @param azimuth the azimuth in degrees, from 0° to 360°.
+     * @return the position, or {@link #size()} if all azimuths are lower.
+     */
+    public int lowerBound(float azimuth) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (mAzimuths[middle] < azimuth) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first sorted position whose azimuth is strictly greater than the given azimuth.
+     * @param azimuth the azimuth in degrees, from 0° to 360°.
+     * @return the position, or {@link #size()} if all azimuths are lower or equal.
+     */
+    public int upperBound(float azimuth) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (mAzimuths[middle] <= azimuth) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Helper methods
+    private static int fillPositions(int[] result, int offset, int fromPosition, int toPosition) {
+        for (int position = fromPosition; position < toPosition; position++) {
+            result[offset++] = position;
+        }
+        return toPosition - fromPosition;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mAzimuths.length) {
+            mAzimuths = new float[capacity];
+            mIndices = new int[capacity];
+            mSortBuffer = new long[capacity];
+        }
+    }
+
+    /**
+     * Returns a valid azimuth value in degrees comprised between 0° (included) and 360° (excluded).
+     * @param azimuth the azimuth value to correct.
+     * @return the valid azimuth value.
+     */
+    private static float getValidAzimuth(float azimuth) {
+        float a = azimuth % 360;
+        if (a < 0) {
+            a += 360;
+        }
+        // Also turns -0.0 into 0.0
+        return a >= 360 ? 0 : a + 0f;
+    }
+}
@@ -0,0 +1,46 @@
+package com.louisnard.argps.model.objects;
+
+/**
+ * Class that holds a layer: a named collection of {@link Point}s, such as the points imported from a GPX file, which can be enabled, disabled or deleted as a whole.<br>
+ *
+ * @author Alexandre Louisnard
+ */
+public class Layer {
+
+    // Attributes
+    private final long mId;
+    private final String mName;
+    private final boolean mEnabled;
+    private final long mPointsNumber;
+
+    /**
+     * Constructs a new instance of {@link Layer}.
+     * @param id the id.
+     * @param name the name.
+     * @param enabled whether the points of the layer are shown.
+     * @param pointsNumber the number of points of the layer.
+     */
+    public Layer(long id, String name, boolean enabled, long pointsNumber) {
+        mId = id;
+        mName = name;
+        mEnabled = enabled;
+        mPointsNumber = pointsNumber;
+    }
+
+    // Getters
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public long getPointsNumber() {
+        return mPointsNumber;
+    }
+}
@@ -4,6 +4,7 @@ import android.database.Cursor;
 import android.location.Location;
 
 import com.louisnard.argps.model.database.ARDbContract;
+import com.louisnard.argps.model.services.GeoKernel;
 import com.louisnard.argps.model.services.PointService;
 
 /**
@@ -75,18 +76,60 @@ public class Point {
     }
 
     /**
-     * Constructs a new instance of {@link Point} from a {@link Cursor}.
+     * Constructs a new instance of {@link Point} from a {@link Cursor}.<br>
+     * Column indices are resolved for each call: use a {@link CursorReader} to read many rows.
      * @param cursor the {@link Cursor} to read the data from.
      */
     public Point(Cursor cursor) {
         if (cursor != null) {
-            mId = cursor.getLong((cursor.getColumnIndex(ARDbContract.PointsColumns._ID)));
-            mName = cursor.getString(cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_NAME));
-            mDescription = cursor.getString(cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_DESCRIPTION));
-            mLocation = new Location("");
-            mLocation.setLatitude(cursor.getDouble(cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_LATITUDE)));
-            mLocation.setLongitude(cursor.getDouble(cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_LONGITUDE)));
-            mLocation.setAltitude(cursor.getInt(cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_ALTITUDE)));
+            new CursorReader(cursor).read(cursor, this);
+        }
+    }
+
+    /**
+     * Reads {@link Point}s from the rows of a {@link Cursor}, resolving the column indices only once per {@link Cursor}.<br>
+     * The description column is optional: it is not read by the lightweight queries, and is left <b>null</b> when missing.
+     */
+    public static class CursorReader {
+
+        private final int mIdIndex;
+        private final int mNameIndex;
+        private final int mDescriptionIndex;
+        private final int mLatitudeIndex;
+        private final int mLongitudeIndex;
+        private final int mAltitudeIndex;
+
+        /**
+         * Constructs a new instance of {@link CursorReader}, resolving the column indices of the given {@link Cursor}.
+         * @param cursor the {@link Cursor} to read the rows from.
+         */
+        public CursorReader(Cursor cursor) {
+            mIdIndex = cursor.getColumnIndex(ARDbContract.PointsColumns._ID);
+            mNameIndex = cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_NAME);
+            mDescriptionIndex = cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_DESCRIPTION);
+            mLatitudeIndex = cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_LATITUDE);
+            mLongitudeIndex = cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_LONGITUDE);
+            mAltitudeIndex = cursor.getColumnIndex(ARDbContract.PointsColumns.COLUMN_ALTITUDE);
+        }
+
+        /**
+         * Reads the current row of the given {@link Cursor}.
+         * @param cursor the {@link Cursor} this {@link CursorReader} has been constructed with.
+         * @return the new {@link Point}.
+         */
+        public Point read(Cursor cursor) {
+            return read(cursor, new Point());
+        }
+
+        private Point read(Cursor cursor, Point point) {
+            point.mId = cursor.getLong(mIdIndex);
+            point.mName = cursor.getString(mNameIndex);
+            point.mDescription = mDescriptionIndex != -1 ? cursor.getString(mDescriptionIndex) : null;
+            point.mLocation = new Location("");
+            point.mLocation.setLatitude(cursor.getDouble(mLatitudeIndex));
+            point.mLocation.setLongitude(cursor.getDouble(mLongitudeIndex));
+            point.mLocation.setAltitude(cursor.getInt(mAltitudeIndex));
+            return point;
         }
     }
 
@@ -221,7 +264,7 @@ public class Point {
     // Calculations
     /**
      * Returns the approximate distance in meters between this {@link Point} and the given {@link Point}.<br>
-     * Distance is defined using the WGS84 ellipsoid.
+     * Distance is calculated with {@link GeoKernel}, using a spherical Earth model.
      * @param point the destination {@link Point}.
      * @return the distance (in meters).
      */
@@ -229,12 +272,12 @@ public class Point {
         if (mLocation == null || point.getLocation() == null) {
             return 0;
         }
-        return (int) mLocation.distanceTo(point.getLocation());
+        return (int) GeoKernel.distance(getLatitude(), getLongitude(), point.getLatitude(), point.getLongitude());
     }
 
     /**
      * Returns the approximate distance in meters between this {@link Point} and the given {@link Location}.<br>
-     * Distance is defined using the WGS84 ellipsoid.
+     * Distance is calculated with {@link GeoKernel}, using a spherical Earth model.
      * @param location the destination {@link Location}.
      * @return the distance (in meters).
      */
@@ -242,12 +285,12 @@ public class Point {
         if (mLocation == null || location == null) {
             return 0;
         }
-        return (int) mLocation.distanceTo(location);
+        return (int) GeoKernel.distance(getLatitude(), getLongitude(), location.getLatitude(), location.getLongitude());
     }
 
     /**
      * Returns the approximate azimuth in degrees East of true North when traveling along the shortest path from this {@link Point} to the given {@link Point}.<br>
-     * The shortest path is defined using the WGS84 ellipsoid. Locations that are (nearly) antipodal may produce meaningless results.
+     * The shortest path is calculated with {@link GeoKernel}, using a spherical Earth model. Locations that are (nearly) antipodal may produce meaningless results.
      * @param point the destination {@link Point}.
      * @return the azimuth to this point (in degrees), taken clockwise from north, from 0° to 360°.
      */
@@ -255,11 +298,7 @@ public class Point {
         if (mLocation == null || point.getLocation() == null) {
             return 0;
         }
-        float azimuth = getLocation().bearingTo(point.getLocation());
-        if (azimuth < 0 && azimuth >= -180) {
-            azimuth += 360;
-        }
-        return azimuth;
+        return GeoKernel.azimuth(getLatitude(), getLongitude(), point.getLatitude(), point.getLongitude());
     }
 
     /**
@@ -275,16 +314,6 @@ public class Point {
         if (mLocation == null || point.getLocation() == null) {
             return 0;
         }
-        final float distance = distanceTo(point);
-        final float heightDifference = (float) (point.getLocation().getAltitude() - getLocation().getAltitude());
-        float angle;
-        if (distance == 0) {
-            angle = heightDifference >= 0 ? 90f : -90f;
-        } else {
-            angle = (float) Math.toDegrees(
-                    Math.atan(heightDifference / distance)
-            );
-        }
-        return angle;
+        return GeoKernel.verticalAngle(distanceTo(point), point.getAltitude() - getAltitude());
     }
 }
@@ -0,0 +1,197 @@
+package com.louisnard.argps.model.objects;
+
+import java.util.Arrays;
+
+/**
+ * Lightweight container holding many points as parallel primitive arrays (struct-of-arrays) instead of a {@link java.util.List} of {@link Point} objects.<br>
+ * Ids, latitudes, longitudes and altitudes are stored in primitive arrays so that the augmented reality rendering and calculation paths never allocate nor touch {@link android.location.Location} objects.<br>
+ * Names are loaded lazily by index through a {@link NameLoader} and cached once loaded.<br>
+ * A {@link PointStore} can be cleared and refilled to reuse its arrays.
+ *
+ * @author Alexandre Louisnard
+ */
+public class PointStore {
+
+    // Constants
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Interface definition for loading the name of a point on demand.
+     */
+    public interface NameLoader {
+        /**
+         * Called the first time the name of a point is requested.
+         * @param id the point id.
+         * @return the point name.
+         */
+        String loadName(long id);
+    }
+
+    // Attributes
+    private int mSize;
+    private long[] mIds;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private int[] mAltitudes;
+    private String[] mNames;
+    private NameLoader mNameLoader;
+
+    // Constructors
+    /**
+     * Constructs a new instance of {@link PointStore}, empty, with a default capacity.
+     */
+    public PointStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new instance of {@link PointStore}, empty, with the given initial capacity.
+     * @param capacity the initial capacity.
+     */
+    public PointStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new long[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mAltitudes = new int[capacity];
+        mNames = new String[capacity];
+    }
+
+    // Setters
+    /**
+     * Sets the {@link NameLoader} used to load the names which have not been provided when adding the points.
+     * @param nameLoader the {@link NameLoader}, or <b>null</b>.
+     */
+    public void setNameLoader(NameLoader nameLoader) {
+        mNameLoader = nameLoader;
+    }
+
+    /**
+     * Removes all points from this {@link PointStore}, keeping its arrays for reuse.
+     */
+    public void clear() {
+        Arrays.fill(mNames, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Ensures that this {@link PointStore} can hold at least the given number of points without growing its arrays.
+     * @param capacity the minimum capacity.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mIds.length) {
+            final int newCapacity = Math.max(capacity, mIds.length * 2);
+            mIds = Arrays.copyOf(mIds, newCapacity);
+            mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+            mAltitudes = Arrays.copyOf(mAltitudes, newCapacity);
+            mNames = Arrays.copyOf(mNames, newCapacity);
+        }
+    }
+
+    /**
+     * Adds a point to this {@link PointStore}. Its name will be loaded lazily through the {@link NameLoader}.
+     * @param id the point id.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param altitude the altitude in meters.
+     * @return the index of the added point.
+     */
+    public int add(long id, double latitude, double longitude, int altitude) {
+        return add(id, latitude, longitude, altitude, null);
+    }
+
+    /**
+     * Adds a point to this {@link PointStore}.
+     * @param id the point id.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param altitude the altitude in meters.
+     * @param name the name, or <b>null</b> to load it lazily through the {@link NameLoader}.
+     * @return the index of the added point.
+     */
+    public int add(long id, double latitude, double longitude, int altitude, String name) {
+        ensureCapacity(mSize + 1);
+        mIds[mSize] = id;
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mAltitudes[mSize] = altitude;
+        mNames[mSize] = name;
+        return mSize++;
+    }
+
+    /**
+     * Adds a copy of a point of another {@link PointStore} to this {@link PointStore}, with its name if it has already been loaded.
+     * @param points the other {@link PointStore}.
+     * @param index the index of the point in the other {@link PointStore}.
+     * @return the index of the added point.
+     */
+    public int addFrom(PointStore points, int index) {
+        return add(points.mIds[index], points.mLatitudes[index], points.mLongitudes[index], points.mAltitudes[index], points.mNames[index]);
+    }
+
+    // Getters
+    /**
+     * Returns the number of points in this {@link PointStore}.
+     * @return the number of points.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Indicates whether this {@link PointStore} is empty or not.
+     * @return <b>true</b> if it contains no points. <b>false</b> otherwise.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Gets the id of the point at the given index.
+     * @param index the point index.
+     * @return the id.
+     */
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * Gets the latitude of the point at the given index.
+     * @param index the point index.
+     * @return the latitude in degrees.
+     */
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    /**
+     * Gets the longitude of the point at the given index.
+     * @param index the point index.
+     * @return the longitude in degrees.
+     */
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    /**
+     * Gets the altitude of the point at the given index.
+     * @param index the point index.
+     * @return the altitude in meters.
+     */
+    public int getAltitude(int index) {
+        return mAltitudes[index];
+    }
+
+    /**
+     * Gets the name of the point at the given index, loading it through the {@link NameLoader} if necessary.
+     * @param index the point index.
+     * @return the name, or <b>null</b> if unknown.
+     */
+    public String getName(int index) {
+        if (mNames[index] == null && mNameLoader != null) {
+            mNames[index] = mNameLoader.loadName(mIds[index]);
+        }
+        return mNames[index];
+    }
+}
@@ -0,0 +1,79 @@
+package com.louisnard.argps.model.objects;
+
+import com.louisnard.argps.model.services.PointService;
+
+/**
+ * Immutable set of points around a user location, along with their relative geometry from this location, ready to be drawn.<br>
+ *
+ * The {@link PointStore}, {@link AzimuthIndex} and arrays of a {@link PointsScene} must not be modified once it has been constructed: a {@link PointsScene} can thus be built on a background thread and then published to the main thread as a whole, without the view ever drawing half-updated points.
+ * The only exception is the lazy loading of the names by the {@link PointStore}, which happens on the thread drawing the points.
+ *
+ * @author Alexandre Louisnard
+ */
+public class PointsScene {
+
+    // Attributes
+    private final Point mUserPoint;
+    private final PointStore mPoints;
+    private final AzimuthIndex mAzimuthIndex;
+    private final float[] mVerticalAngles;
+    private final int[] mDistances;
+    private final long mQueryLatency;
+
+    /**
+     * Constructs a new instance of {@link PointsScene}.
+     * @param userPoint the user location point, used as a reference.
+     * @param points the {@link PointStore} holding the points.
+     * @param azimuthIndex the {@link AzimuthIndex} of the points sorted by azimuth.
+     * @param verticalAngles the vertical angles of the points, indexed like {@param points}, as computed by {@link PointService#computeRelativeGeometry(Point, PointStore, float[], float[], int[])}.
+     * @param distances the distances of the points, indexed like {@param points}.
+     * @param queryLatency the time it took to build this {@link PointsScene} since it was requested, in milliseconds.
+     */
+    public PointsScene(Point userPoint, PointStore points, AzimuthIndex azimuthIndex, float[] verticalAngles, int[] distances, long queryLatency) {
+        mUserPoint = userPoint;
+        mPoints = points;
+        mAzimuthIndex = azimuthIndex;
+        mVerticalAngles = verticalAngles;
+        mDistances = distances;
+        mQueryLatency = queryLatency;
+    }
+
+    // Getters
+    public Point getUserPoint() {
+        return mUserPoint;
+    }
+
+    public PointStore getPoints() {
+        return mPoints;
+    }
+
+    public AzimuthIndex getAzimuthIndex() {
+        return mAzimuthIndex;
+    }
+
+    /**
+     * Gets the vertical angle of the point at the given index.
+     * @param index the index in the {@link PointStore} returned by {@link #getPoints()}.
+     * @return the vertical angle in degrees.
+     */
+    public float getVerticalAngle(int index) {
+        return mVerticalAngles[index];
+    }
+
+    /**
+     * Gets the distance of the point at the given index.
+     * @param index the index in the {@link PointStore} returned by {@link #getPoints()}.
+     * @return the distance in meters.
+     */
+    public int getDistance(int index) {
+        return mDistances[index];
+    }
+
+    /**
+     * Returns the time it took to build this {@link PointsScene} since it was requested, including the time spent waiting for a thread.
+     * @return the latency in milliseconds.
+     */
+    public long getQueryLatency() {
+        return mQueryLatency;
+    }
+}
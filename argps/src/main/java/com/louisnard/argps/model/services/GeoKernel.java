@@ -0,0 +1,218 @@
+package com.louisnard.argps.model.services;
+
+/**
+ * Allocation-free geodesic calculations between an observer and target points, without any Android dependency.<br>
+ *
+ * The observer context (latitude and longitude in radians, sine and cosine of the latitude) is precomputed once per location fix with {@link #setObserver(double, double, int)}.
+ * Then {@link #evaluate(double, double, int)} calculates the distance, the initial azimuth and the vertical angle to a target point, which can be read with {@link #getDistance()}, {@link #getAzimuth()} and {@link #getVerticalAngle()}.<br>
+ *
+ * Distances use the haversine formula on a sphere of radius {@link PointService#EARTH_RADIUS}, which differs by less than 0.5% from the WGS84 ellipsoid used by {@link android.location.Location#distanceTo(android.location.Location)}.<br>
+ * Instances are not thread-safe: use one instance per thread.
+ *
+ * @author Alexandre Louisnard
+ */
+public class GeoKernel {
+
+    // Observer context
+    private double mObserverLatitudeRadians;
+    private double mObserverLongitudeRadians;
+    private double mObserverSinLatitude;
+    private double mObserverCosLatitude;
+    private int mObserverAltitude;
+
+    // Results of the last evaluation
+    private double mDistance;
+    private float mAzimuth;
+    private float mVerticalAngle;
+
+    // Constructors
+    /**
+     * Constructs a new instance of {@link GeoKernel}, with an observer located at latitude 0°, longitude 0° and altitude 0m.
+     */
+    public GeoKernel() {
+        setObserver(0, 0, 0);
+    }
+
+    /**
+     * Constructs a new instance of {@link GeoKernel} with the given observer.
+     * @param latitude the observer latitude in degrees.
+     * @param longitude the observer longitude in degrees.
+     * @param altitude the observer altitude in meters.
+     */
+    public GeoKernel(double latitude, double longitude, int altitude) {
+        setObserver(latitude, longitude, altitude);
+    }
+
+    /**
+     * Sets the observer location and precomputes its context. Should be called once per location fix.
+     * @param latitude the observer latitude in degrees.
+     * @param longitude the observer longitude in degrees.
+     * @param altitude the observer altitude in meters.
+     */
+    public void setObserver(double latitude, double longitude, int altitude) {
+        mObserverLatitudeRadians = Math.toRadians(latitude);
+        mObserverLongitudeRadians = Math.toRadians(longitude);
+        mObserverSinLatitude = Math.sin(mObserverLatitudeRadians);
+        mObserverCosLatitude = Math.cos(mObserverLatitudeRadians);
+        mObserverAltitude = altitude;
+    }
+
+    /**
+     * Calculates the distance, the initial azimuth and the vertical angle from the observer to the given target.<br>
+     * The results are then available through {@link #getDistance()}, {@link #getAzimuth()} and {@link #getVerticalAngle()}.
+     * @param latitude the target latitude in degrees.
+     * @param longitude the target longitude in degrees.
+     * @param altitude the target altitude in meters.
+     */
+    public void evaluate(double latitude, double longitude, int altitude) {
+        final double latitudeRadians = Math.toRadians(latitude);
+        final double deltaLongitude = Math.toRadians(longitude) - mObserverLongitudeRadians;
+        final double sinLatitude = Math.sin(latitudeRadians);
+        final double cosLatitude = Math.cos(latitudeRadians);
+        final double sinDeltaLongitude = Math.sin(deltaLongitude);
+        final double cosDeltaLongitude = Math.cos(deltaLongitude);
+
+        // Distance: haversine formula
+        final double sinHalfDeltaLatitude = Math.sin((latitudeRadians - mObserverLatitudeRadians) / 2);
+        final double sinHalfDeltaLongitude = Math.sin(deltaLongitude / 2);
+        final double a = sinHalfDeltaLatitude * sinHalfDeltaLatitude + mObserverCosLatitude * cosLatitude * sinHalfDeltaLongitude * sinHalfDeltaLongitude;
+        mDistance = 2 * PointService.EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+
+        // Initial azimuth, clockwise from north
+        double azimuth = Math.toDegrees(Math.atan2(sinDeltaLongitude * cosLatitude, mObserverCosLatitude * sinLatitude - mObserverSinLatitude * cosLatitude * cosDeltaLongitude));
+        if (azimuth < 0) {
+            azimuth += 360;
+        }
+        mAzimuth = azimuth >= 360 ? 0 : (float) azimuth;
+
+        // Vertical angle
+        mVerticalAngle = verticalAngle((int) mDistance, altitude - mObserverAltitude);
+    }
+
+    // Getters
+    /**
+     * Gets the distance calculated by the last call to {@link #evaluate(double, double, int)}.
+     * @return the distance in meters.
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * Gets the azimuth calculated by the last call to {@link #evaluate(double, double, int)}.
+     * @return the azimuth in degrees, taken clockwise from north, from 0° to 360°.
+     */
+    public float getAzimuth() {
+        return mAzimuth;
+    }
+
+    /**
+     * Gets the vertical angle calculated by the last call to {@link #evaluate(double, double, int)}.
+     * @return the vertical angle in degrees, from -90° to 90°.
+     */
+    public float getVerticalAngle() {
+        return mVerticalAngle;
+    }
+
+    // Static helper methods
+    /**
+     * Returns the distance in meters between two locations.
+     * @param latitude1 the first latitude in degrees.
+     * @param longitude1 the first longitude in degrees.
+     * @param latitude2 the second latitude in degrees.
+     * @param longitude2 the second longitude in degrees.
+     * @return the distance in meters.
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double latitude1Radians = Math.toRadians(latitude1);
+        final double latitude2Radians = Math.toRadians(latitude2);
+        final double sinHalfDeltaLatitude = Math.sin((latitude2Radians - latitude1Radians) / 2);
+        final double sinHalfDeltaLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        final double a = sinHalfDeltaLatitude * sinHalfDeltaLatitude + Math.cos(latitude1Radians) * Math.cos(latitude2Radians) * sinHalfDeltaLongitude * sinHalfDeltaLongitude;
+        return 2 * PointService.EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Returns the initial azimuth in degrees East of true North when traveling along the shortest path from the first location to the second one.
+     * @param latitude1 the first latitude in degrees.
+     * @param longitude1 the first longitude in degrees.
+     * @param latitude2 the second latitude in degrees.
+     * @param longitude2 the second longitude in degrees.
+     * @return the azimuth in degrees, taken clockwise from north, from 0° to 360°.
+     */
+    public static float azimuth(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double latitude1Radians = Math.toRadians(latitude1);
+        final double latitude2Radians = Math.toRadians(latitude2);
+        final double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        final double cosLatitude2 = Math.cos(latitude2Radians);
+        double azimuth = Math.toDegrees(Math.atan2(Math.sin(deltaLongitude) * cosLatitude2, Math.cos(latitude1Radians) * Math.sin(latitude2Radians) - Math.sin(latitude1Radians) * cosLatitude2 * Math.cos(deltaLongitude)));
+        if (azimuth < 0) {
+            azimuth += 360;
+        }
+        return azimuth >= 360 ? 0 : (float) azimuth;
+    }
+
+    /**
+     * Returns the location reached when traveling the given distance from a location along the great circle starting at the given azimuth.
+     * @param latitude the starting latitude in degrees.
+     * @param longitude the starting longitude in degrees.
+     * @param azimuth the initial azimuth in degrees, taken clockwise from north.
+     * @param distance the distance in meters.
+     * @return the destination, as an array: {latitude, longitude} in degrees, the longitude from -180° to 180°.
+     */
+    public static double[] destination(double latitude, double longitude, double azimuth, double distance) {
+        final double angularDistance = distance / PointService.EARTH_RADIUS;
+        final double latitudeRadians = Math.toRadians(latitude);
+        final double azimuthRadians = Math.toRadians(azimuth);
+        final double sinLatitude = Math.sin(latitudeRadians) * Math.cos(angularDistance) + Math.cos(latitudeRadians) * Math.sin(angularDistance) * Math.cos(azimuthRadians);
+        final double destinationLatitude = Math.asin(Math.max(-1, Math.min(1, sinLatitude)));
+        final double deltaLongitude = Math.atan2(Math.sin(azimuthRadians) * Math.sin(angularDistance) * Math.cos(latitudeRadians), Math.cos(angularDistance) - Math.sin(latitudeRadians) * sinLatitude);
+        double destinationLongitude = longitude + Math.toDegrees(deltaLongitude);
+        destinationLongitude = ((destinationLongitude + 540) % 360) - 180;
+        return new double[] {Math.toDegrees(destinationLatitude), destinationLongitude};
+    }
+
+    /**
+     * Returns the smallest latitude/longitude bounding box containing the circle of the given radius around the given location.<br>
+     * The longitude span is scaled by the latitude: it is exactly the span of the circle, which widens towards the poles.
+     * If the circle contains a pole, the box covers all longitudes. If the circle crosses the antimeridian, the minimum longitude is greater than the maximum longitude.
+     * @param latitude the latitude of the center in degrees.
+     * @param longitude the longitude of the center in degrees, from -180° to 180°.
+     * @param distance the radius in meters.
+     * @return the bounding box, as an array: {latitudeMin, latitudeMax, longitudeMin, longitudeMax} in degrees.
+     */
+    public static double[] boundingBox(double latitude, double longitude, double distance) {
+        final double angularDistance = distance / PointService.EARTH_RADIUS;
+        final double latitudeMin = latitude - Math.toDegrees(angularDistance);
+        final double latitudeMax = latitude + Math.toDegrees(angularDistance);
+        final double sinDeltaLongitude = Math.sin(angularDistance) / Math.cos(Math.toRadians(latitude));
+        if (latitudeMin <= -90 || latitudeMax >= 90 || angularDistance >= Math.PI / 2 || sinDeltaLongitude >= 1) {
+            // The circle contains a pole, or is too large: all longitudes
+            return new double[] {Math.max(latitudeMin, -90), Math.min(latitudeMax, 90), -180, 180};
+        }
+        final double deltaLongitude = Math.toDegrees(Math.asin(sinDeltaLongitude));
+        double longitudeMin = longitude - deltaLongitude;
+        double longitudeMax = longitude + deltaLongitude;
+        if (longitudeMin < -180) {
+            longitudeMin += 360;
+        }
+        if (longitudeMax > 180) {
+            longitudeMax -= 360;
+        }
+        return new double[] {latitudeMin, latitudeMax, longitudeMin, longitudeMax};
+    }
+
+    /**
+     * Returns the vertical angle in degrees of a point, from its distance and its height difference.<br>
+     * If the point has the same horizontal location (distance = 0), the angle will be 90° or -90°.
+     * @param distance the distance in meters.
+     * @param heightDifference the height difference in meters, positive if the point is higher.
+     * @return the vertical angle in degrees, from -90° to 90°.
+     */
+    public static float verticalAngle(int distance, int heightDifference) {
+        if (distance == 0) {
+            return heightDifference >= 0 ? 90f : -90f;
+        }
+        return (float) Math.toDegrees(Math.atan((float) heightDifference / distance));
+    }
+}
@@ -0,0 +1,115 @@
+package com.louisnard.argps.model.services;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs, backed by an open addressing hash table with linear probing.<br>
+ *
+ * Unlike a {@link java.util.HashSet} of {@link Long}s, adding or looking up a value allocates nothing, which matters when hashing every point of a large import.
+ *
+ * @author Alexandre Louisnard
+ */
+public class LongHashSet {
+
+    // Constants
+    private static final int DEFAULT_CAPACITY = 16;
+    // The table is grown when it is more than half full, to keep the probe sequences short
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    // 0 marks the empty slots: the value 0 itself is tracked separately
+    private long[] mTable;
+    private boolean mContainsZero;
+    private int mSize;
+
+    /**
+     * Constructs a new empty instance of {@link LongHashSet}.
+     */
+    public LongHashSet() {
+        mTable = new long[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Adds a value.
+     * @param value the value.
+     * @return <b>true</b> if the value has been added. <b>false</b> if it was already contained.
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (mContainsZero) {
+                return false;
+            }
+            mContainsZero = true;
+            mSize++;
+            return true;
+        }
+        int slot = slot(value, mTable.length);
+        while (mTable[slot] != 0) {
+            if (mTable[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & (mTable.length - 1);
+        }
+        mTable[slot] = value;
+        mSize++;
+        if (mSize > mTable.length * MAX_LOAD_FACTOR) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a value is contained.
+     * @param value the value.
+     * @return <b>true</b> if the value is contained.
+     */
+    public boolean contains(long value) {
+        if (value == 0) {
+            return mContainsZero;
+        }
+        int slot = slot(value, mTable.length);
+        while (mTable[slot] != 0) {
+            if (mTable[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & (mTable.length - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of values.
+     * @return the number of values.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all values, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(mTable, 0);
+        mContainsZero = false;
+        mSize = 0;
+    }
+
+    private void grow() {
+        final long[] oldTable = mTable;
+        mTable = new long[2 * oldTable.length];
+        for (long value : oldTable) {
+            if (value != 0) {
+                int slot = slot(value, mTable.length);
+                while (mTable[slot] != 0) {
+                    slot = (slot + 1) & (mTable.length - 1);
+                }
+                mTable[slot] = value;
+            }
+        }
+    }
+
+    // Spreads the bits of the value, since close values (such as neighbouring cells) are common, then keeps the high bits for the table size
+    private static int slot(long value, int capacity) {
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> (64 - Integer.numberOfTrailingZeros(capacity)));
+    }
+}
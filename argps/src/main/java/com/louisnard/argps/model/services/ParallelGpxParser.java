@@ -0,0 +1,295 @@
+package com.louisnard.argps.model.services;
+
+import android.util.Log;
+
+import com.louisnard.argps.BuildConfig;
+import com.louisnard.argps.model.objects.Point;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parser of large GPX files on several cores.<br>
+ *
+ * The waypoints of a GPX file are all contiguous, between the metadata and the routes and tracks. The file is memory-mapped and its waypoints are split into chunks at "&lt;wpt" boundaries found by scanning the bytes.
+ * Each chunk is parsed on a fixed thread pool by its own {@link org.xmlpull.v1.XmlPullParser}, preceded by the header of the file (XML declaration, gpx start tag with its namespace declarations, metadata) and followed by the gpx end tag, so that it is a well-formed GPX document on its own.
+ * The points of the chunks are then merged in file order.<br>
+ * A "&lt;wpt" within a comment or a CDATA section may produce an invalid chunk: the file is then parsed again sequentially.
+ * A coordinate or an elevation which is not a number is reported as an {@link XmlPullParserException}, whichever the number of threads.
+ *
+ * @author Alexandre Louisnard
+ */
+public class ParallelGpxParser {
+
+    // Tag
+    private static final String TAG = ParallelGpxParser.class.getSimpleName();
+
+    // Constants
+    // The number of chunks per thread: smaller chunks balance the load between the threads
+    private static final int CHUNKS_PER_THREAD = 4;
+    // The minimum size of a chunk, in bytes: smaller files are parsed sequentially
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final byte[] WPT_START_TAG = {'<', 'w', 'p', 't'};
+    private static final byte[] WPT_END_TAG = {'<', '/', 'w', 'p', 't', '>'};
+    private static final byte[] GPX_END_TAG = {'<', '/', 'g', 'p', 'x', '>'};
+
+    private ParallelGpxParser() {
+        // Static helper methods only
+    }
+
+    /**
+     * Parses a GPX file with the given number of threads and returns the {@link List<Point>} that it contains, in file order.<br>
+     * With a single thread, or for a small file, the file is parsed sequentially like {@link PointService#parseGpxAsynchronously(InputStream, PointService.GpxParserListener)} does.
+     * @param inputStream the {@link FileInputStream} of the GPX file, read from its beginning. Not closed.
+     * @param threadsNumber the number of threads, for instance {@link Runtime#availableProcessors()}.
+     * @return the {@link List<Point>} contained in the GPX file, or <b>null</b> if the file is not a GPX file.
+     * @throws XmlPullParserException if the file is not well-formed, if a waypoint has no coordinates, or if a coordinate or an elevation is not a number.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<Point> parse(FileInputStream inputStream, int threadsNumber) throws XmlPullParserException, IOException {
+        final FileChannel channel = inputStream.getChannel();
+        final long size = channel.size();
+        if (threadsNumber <= 1 || size < 2L * MIN_CHUNK_SIZE || size > Integer.MAX_VALUE) {
+            return parseSequentially(channel);
+        }
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        final int[] boundaries = findChunkBoundaries(buffer, (int) Math.min((long) threadsNumber * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+        if (boundaries == null) {
+            return parseSequentially(channel);
+        }
+
+        // Parse the chunks concurrently, each one as a GPX document made of the header, the chunk and the gpx end tag
+        final ByteBuffer header = slice(buffer, 0, boundaries[0]);
+        final List<Callable<List<Point>>> tasks = new ArrayList<>(boundaries.length - 1);
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            final ByteBuffer chunk = slice(buffer, boundaries[i], boundaries[i + 1]);
+            tasks.add(new Callable<List<Point>>() {
+                @Override
+                public List<Point> call() throws Exception {
+                    final InputStream chunkInputStream = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                            new ByteBufferInputStream(header.duplicate()), new ByteBufferInputStream(chunk), new ByteArrayInputStream(GPX_END_TAG))));
+                    final List<Point> points = new ArrayList<>();
+                    if (!PointService.parseGpx(chunkInputStream, new PointService.GpxPointHandler() {
+                        @Override
+                        public boolean onPointParsed(Point point) {
+                            points.add(point);
+                            return true;
+                        }
+                    })) {
+                        throw new XmlPullParserException("Invalid GPX chunk");
+                    }
+                    return points;
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threadsNumber);
+        try {
+            final List<Future<List<Point>>> futures = executor.invokeAll(tasks);
+            // Merge in file order
+            int pointsNumber = 0;
+            for (Future<List<Point>> future : futures) {
+                pointsNumber += future.get().size();
+            }
+            final List<Point> points = new ArrayList<>(pointsNumber);
+            for (Future<List<Point>> future : futures) {
+                points.addAll(future.get());
+            }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Parsed " + pointsNumber + " points from " + tasks.size() + " chunks on " + threadsNumber + " threads");
+            return points;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("GPX parsing interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof NumberFormatException) {
+                // An invalid coordinate or elevation: the sequential parsing would fail the same way
+                throw new XmlPullParserException("Invalid GPX number: " + e.getCause().getMessage(), null, e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            // A chunk boundary was not a waypoint start tag, or the file is invalid: the sequential parsing tells
+            if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX chunk, parsing sequentially: " + e.getCause());
+            return parseSequentially(channel);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Point> parseSequentially(FileChannel channel) throws XmlPullParserException, IOException {
+        channel.position(0);
+        final List<Point> points = new ArrayList<>();
+        final boolean isGpx;
+        try {
+            isGpx = PointService.parseGpx(Channels.newInputStream(channel), new PointService.GpxPointHandler() {
+                @Override
+                public boolean onPointParsed(Point point) {
+                    points.add(point);
+                    return true;
+                }
+            });
+        } catch (NumberFormatException e) {
+            throw new XmlPullParserException("Invalid GPX number: " + e.getMessage(), null, e);
+        }
+        return isGpx ? points : null;
+    }
+
+    /**
+     * Splits the waypoints of a GPX file into chunks starting with a waypoint start tag.
+     * @param buffer the {@link ByteBuffer} of the whole file.
+     * @param chunksNumber the wished number of chunks.
+     * @return the offsets of the chunks, followed by the end offset of the last chunk, right after the last waypoint element, or <b>null</b> if the file cannot be split.
+     */
+    static int[] findChunkBoundaries(ByteBuffer buffer, int chunksNumber) {
+        final int start = indexOfWptStartTag(buffer, 0, buffer.limit());
+        final int end = indexAfterLastWpt(buffer);
+        if (start == -1 || end <= start || chunksNumber < 2) {
+            return null;
+        }
+        final int[] boundaries = new int[chunksNumber + 1];
+        boundaries[0] = start;
+        int count = 1;
+        for (int i = 1; i < chunksNumber; i++) {
+            final int target = (int) (start + (long) (end - start) * i / chunksNumber);
+            final int boundary = indexOfWptStartTag(buffer, Math.max(target, boundaries[count - 1] + 1), end);
+            if (boundary == -1) {
+                break;
+            }
+            if (boundary > boundaries[count - 1]) {
+                boundaries[count++] = boundary;
+            }
+        }
+        if (count < 2) {
+            return null;
+        }
+        boundaries[count++] = end;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    // Returns the offset of the first "<wpt" followed by a whitespace, '>' or '/' within [from, to), or -1
+    private static int indexOfWptStartTag(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i <= to - WPT_START_TAG.length - 1; i++) {
+            if (matches(buffer, i, WPT_START_TAG) && isWptStartTagEnd(buffer.get(i + WPT_START_TAG.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Whether the given byte following "<wpt" ends the element name, so that "<wpt" is not the beginning of another name
+    private static boolean isWptStartTagEnd(byte next) {
+        return next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '>' || next == '/';
+    }
+
+    // Returns the offset right after the last waypoint element, whether it is closed by "</wpt>" or self-closing, or -1
+    private static int indexAfterLastWpt(ByteBuffer buffer) {
+        final int lastEndTag = lastIndexOf(buffer, WPT_END_TAG);
+        final int end = lastEndTag == -1 ? -1 : lastEndTag + WPT_END_TAG.length;
+        final int lastStartTag = lastIndexOfWptStartTag(buffer);
+        if (lastStartTag > lastEndTag) {
+            // A start tag after the last end tag can only be a self-closing waypoint, otherwise the file is invalid
+            final int tagEnd = indexOf(buffer, (byte) '>', lastStartTag);
+            return tagEnd != -1 && buffer.get(tagEnd - 1) == '/' ? tagEnd + 1 : -1;
+        }
+        return end;
+    }
+
+    // Returns the offset of the last "<wpt" followed by a whitespace, '>' or '/', or -1
+    private static int lastIndexOfWptStartTag(ByteBuffer buffer) {
+        for (int i = buffer.limit() - WPT_START_TAG.length - 1; i >= 0; i--) {
+            if (matches(buffer, i, WPT_START_TAG) && isWptStartTagEnd(buffer.get(i + WPT_START_TAG.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte[] bytes) {
+        for (int i = buffer.limit() - bytes.length; i >= 0; i--) {
+            if (matches(buffer, i, bytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, byte[] bytes) {
+        for (int j = 0; j < bytes.length; j++) {
+            if (buffer.get(offset + j) != bytes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(to);
+        slice.position(from);
+        return slice.slice();
+    }
+
+    /**
+     * {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
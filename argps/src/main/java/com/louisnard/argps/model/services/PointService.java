@@ -1,21 +1,35 @@
 package com.louisnard.argps.model.services;
 
+import android.database.Cursor;
+import android.location.Location;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.louisnard.argps.BuildConfig;
+import com.louisnard.argps.model.database.ARDbHelper;
+import com.louisnard.argps.model.objects.AzimuthIndex;
 import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointStore;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Helper class that performs operations related to {@link Point}.
@@ -34,11 +48,115 @@ public class PointService {
     // Constants
     // The Earth mean radius in meters
     public static final double EARTH_RADIUS = 6371000;
+    // The number of points per batch emitted by the GPX streaming import
+    private static final int GPX_IMPORT_BATCH_SIZE = 500;
+    // The maximum number of batches waiting to be inserted during a GPX streaming import, which bounds its memory use
+    private static final int GPX_IMPORT_QUEUE_CAPACITY = 4;
+    // The number of points exported between two progress notifications
+    private static final int GPX_EXPORT_PROGRESS_INTERVAL = 1000;
+    // The size of the buffer of the GPX export output stream, in bytes
+    private static final int GPX_EXPORT_BUFFER_SIZE = 64 * 1024;
+    // GPX 1.1
+    private static final String GPX_NAMESPACE = "http://www.topografix.com/GPX/1/1";
+    private static final String GPX_CREATOR = "ARGPS";
 
     public interface GpxParserListener {
         void onGpxParsed(List<Point> parsedPoints);
     }
 
+    /**
+     * Listener of a streaming GPX parsing started with {@link #parseGpxAsynchronously(InputStream, long, int, GpxStreamListener)}, notified on the main thread.<br>
+     * Contrary to {@link GpxParserListener}, the points are delivered by batches while the file is being parsed, and a parsing error is reported instead of silently returning partial points.
+     */
+    public interface GpxStreamListener {
+        /**
+         * Called each time a batch of valid points has been parsed, in file order.
+         * @param batch the {@link List<Point>} of the batch, which belongs to the listener.
+         */
+        void onGpxBatch(List<Point> batch);
+
+        /**
+         * Called along with each batch, to report the parsing progress.
+         * @param bytesRead the number of bytes read from the file so far.
+         * @param totalBytes the size of the file in bytes, or -1 if unknown.
+         */
+        void onGpxProgress(long bytesRead, long totalBytes);
+
+        /**
+         * Called when the whole file has been parsed, after the last batch.
+         * @param stats the {@link GpxParsingStats} of the parsing.
+         */
+        void onGpxComplete(GpxParsingStats stats);
+
+        /**
+         * Called instead of {@link #onGpxComplete(GpxParsingStats)} if the file is not a valid GPX file or cannot be read. The batches delivered before the error remain valid.
+         * @param exception the error.
+         * @param stats the {@link GpxParsingStats} of the parsing until the error.
+         */
+        void onGpxError(Exception exception, GpxParsingStats stats);
+    }
+
+    /**
+     * Statistics of a streaming GPX parsing.
+     */
+    public static class GpxParsingStats {
+        private final long mPointsNumber;
+        private final int mBatchesNumber;
+        private final long mBytesRead;
+        private final long mDuration;
+
+        private GpxParsingStats(long pointsNumber, int batchesNumber, long bytesRead, long duration) {
+            mPointsNumber = pointsNumber;
+            mBatchesNumber = batchesNumber;
+            mBytesRead = bytesRead;
+            mDuration = duration;
+        }
+
+        // Getters
+        public long getPointsNumber() {
+            return mPointsNumber;
+        }
+
+        public int getBatchesNumber() {
+            return mBatchesNumber;
+        }
+
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+
+        /**
+         * Returns the parsing duration.
+         * @return the duration in milliseconds.
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+    }
+
+    public interface GpxCounterListener {
+        /**
+         * Called when the points of a GPX file have been counted.
+         * @param pointsNumber the number of valid points, or -1 if the file is invalid.
+         */
+        void onGpxPointsCounted(int pointsNumber);
+    }
+
+    public interface GpxExportListener {
+        /**
+         * Called periodically during a GPX export.
+         * @param exportedPointsNumber the number of points written so far.
+         * @param totalPointsNumber the total number of points to write.
+         */
+        void onGpxExportProgress(long exportedPointsNumber, long totalPointsNumber);
+
+        /**
+         * Called when a GPX export has completed.
+         * @param exportedPointsNumber the number of points written, or -1 if the file could not be written.
+         */
+        void onGpxExported(long exportedPointsNumber);
+    }
+
     /**
      * Initializes if necessary and returns the singleton instance of {@link PointService}.
      * @return the singleton instance of {@link PointService}.
@@ -134,6 +252,27 @@ public class PointService {
         return pointsSortedMap;
     }
 
+    /**
+     * Calculates in one pass the relative azimuth, vertical angle and distance of each point from {@param points} as seen from {@param observer} (which is for instance the user location).<br>
+     * Meant to be called once per location update, so that the rendering only reads the resulting arrays.<br>
+     * The result arrays are indexed like {@param points} and must hold at least {@link PointStore#size()} elements.<br>
+     * The azimuths can then be sorted with an {@link AzimuthIndex}.
+     * @param observer the {@link Point} from which to calculate the relative geometry of the other points. For instance, the user location.
+     * @param points the {@link PointStore} holding the points.
+     * @param azimuths the array to fill with the azimuths in degrees, from 0° to 360°.
+     * @param verticalAngles the array to fill with the vertical angles in degrees, from -90° to 90°.
+     * @param distances the array to fill with the distances in meters.
+     */
+    public static void computeRelativeGeometry(Point observer, PointStore points, float[] azimuths, float[] verticalAngles, int[] distances) {
+        final GeoKernel geoKernel = new GeoKernel(observer.getLatitude(), observer.getLongitude(), observer.getAltitude());
+        for (int i = 0; i < points.size(); i++) {
+            geoKernel.evaluate(points.getLatitude(i), points.getLongitude(i), points.getAltitude(i));
+            azimuths[i] = geoKernel.getAzimuth();
+            verticalAngles[i] = geoKernel.getVerticalAngle();
+            distances[i] = (int) geoKernel.getDistance();
+        }
+    }
+
     /**
      * Parses a GPX file {@link InputStream} and returns the {@link List<Point>} that it contains.
      * @param inputStream the {@link InputStream} of the GPX file.
@@ -145,6 +284,185 @@ public class PointService {
         gpxParser.execute();
     }
 
+    /**
+     * Parses a GPX file on several cores with a {@link ParallelGpxParser} and returns the {@link List<Point>} that it contains, in file order.<br>
+     * Meant for very large files, whose parsing is CPU-bound: smaller files are parsed sequentially, like {@link #parseGpxAsynchronously(InputStream, GpxParserListener)} does.
+     * @param inputStream the {@link FileInputStream} of the GPX file, such as the one opened by a {@link android.content.ContentResolver} for a local file. Closed when parsing has completed.
+     * @param listener the {@link GpxParserListener} to notify when parsing has completed.
+     */
+    public void parseGpxInParallelAsynchronously(FileInputStream inputStream, GpxParserListener listener) {
+        final ParallelGpxParserTask parallelGpxParserTask = new ParallelGpxParserTask(inputStream, listener);
+        parallelGpxParserTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Parses a GPX file {@link InputStream} on a background thread and delivers its valid {@link Point}s by batches as soon as they are parsed, so that they can be inserted or displayed without waiting for the whole file.<br>
+     * The batches are delivered on the main thread: a listener slower than the parser lets them pile up, and should hand them over to another thread if needed.
+     * @param inputStream the {@link InputStream} of the GPX file. Closed when parsing has completed.
+     * @param totalBytes the size of the file in bytes, used to report the progress, or -1 if unknown.
+     * @param batchSize the number of points per batch. The last batch may be smaller.
+     * @param listener the {@link GpxStreamListener} to notify.
+     */
+    public void parseGpxAsynchronously(InputStream inputStream, long totalBytes, int batchSize, GpxStreamListener listener) {
+        final GpxStreamParser gpxStreamParser = new GpxStreamParser(inputStream, totalBytes, batchSize, listener);
+        gpxStreamParser.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Counts the valid {@link Point}s contained in a GPX file {@link InputStream}, without keeping them in memory.<br>
+     * Meant to ask the user for a confirmation before a streaming import with {@link #importGpxAsynchronously(InputStream, ARDbHelper, String, String, long, ARDbHelper.ARDbHelperListener)}, which needs to reopen the file.
+     * @param inputStream the {@link InputStream} of the GPX file. Closed when counting has completed.
+     * @param listener the {@link GpxCounterListener} to notify when counting has completed.
+     */
+    public void countGpxPointsAsynchronously(InputStream inputStream, GpxCounterListener listener) {
+        final GpxCounter gpxCounter = new GpxCounter(inputStream, listener);
+        gpxCounter.execute();
+    }
+
+    /**
+     * Imports the {@link Point}s contained in a GPX file {@link InputStream} into the {@link ARDbHelper} database, without ever holding the whole {@link List<Point>} in memory.<br>
+     * The parser emits batches of {@link #GPX_IMPORT_BATCH_SIZE} points into a bounded queue, consumed by a database writer running concurrently: parsing and insertion overlap, and memory use does not depend on the file size.<br>
+     * If the file turns out to be invalid halfway, {@link ARDbHelper.ARDbHelperListener#onPointsInsertionFailed(long)} is called, and the import is discarded: the previous points of the layer are kept.
+     * @param inputStream the {@link InputStream} of the GPX file. Closed when parsing has completed.
+     * @param dbHelper the {@link ARDbHelper} to insert the points into.
+     * @param sourceId the stable id of the GPX file, for instance its {@link android.net.Uri}: the points of a previous import of the same file are replaced.
+     * @param layerName the name of the layer to import the points into, for instance the file name.
+     * @param totalPointsNumber the expected number of points, for instance counted by {@link #countGpxPointsAsynchronously(InputStream, GpxCounterListener)}, used to report the progress.
+     * @param listener the {@link ARDbHelper.ARDbHelperListener} to notify of the insertion progress and completion.
+     */
+    public void importGpxAsynchronously(InputStream inputStream, ARDbHelper dbHelper, String sourceId, String layerName, long totalPointsNumber, ARDbHelper.ARDbHelperListener listener) {
+        final BlockingQueue<List<Point>> queue = new ArrayBlockingQueue<>(GPX_IMPORT_QUEUE_CAPACITY);
+        // Both tasks must run concurrently
+        dbHelper.addPointsAsynchronously(queue, sourceId, layerName, totalPointsNumber, listener);
+        final GpxImporter gpxImporter = new GpxImporter(inputStream, queue);
+        gpxImporter.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Exports the points of the {@link ARDbHelper} database into a GPX file {@link OutputStream}, on a background thread.<br>
+     * The rows are streamed from a {@link Cursor} straight into an {@link XmlSerializer} over a buffered stream: no {@link Point} object is created and memory use does not depend on the number of points.
+     * @param outputStream the {@link OutputStream} of the GPX file. Closed when the export has completed.
+     * @param dbHelper the {@link ARDbHelper} to read the points from.
+     * @param layerId the id of the layer whose points are exported, or {@link ARDbHelper#ALL_LAYERS}.
+     * @param location the {@link Location} around which the points have to be located, or <b>null</b> to export the points wherever they are.
+     * @param distance the distance in meters from the {@link Location} within which the points have to be located. Ignored without a {@link Location}.
+     * @param listener the {@link GpxExportListener} to notify of the export progress and completion.
+     */
+    public void exportGpxAsynchronously(OutputStream outputStream, ARDbHelper dbHelper, long layerId, Location location, int distance, GpxExportListener listener) {
+        final GpxExporter gpxExporter = new GpxExporter(outputStream, dbHelper, layerId, location, distance, listener);
+        gpxExporter.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Receives the {@link Point}s parsed from a GPX file one at a time.
+     */
+    interface GpxPointHandler {
+        /**
+         * Called for each valid {@link Point} parsed.
+         * @param point the parsed {@link Point}.
+         * @return <b>true</b> to continue parsing, <b>false</b> to stop.
+         */
+        boolean onPointParsed(Point point);
+    }
+
+    /**
+     * Parses a GPX file {@link InputStream}, passing each valid {@link Point} to {@param handler} as soon as its closing tag is read.<br>
+     * No {@link Point} is retained by the parser itself.
+     * @param inputStream the {@link InputStream} of the GPX file.
+     * @param handler the {@link GpxPointHandler} receiving the parsed points.
+     * @return <b>true</b> if the file is a GPX file, <b>false</b> otherwise.
+     * @throws XmlPullParserException if the file is not well-formed, or if a waypoint has no latitude or longitude.
+     * @throws IOException if the file cannot be read.
+     * @throws NumberFormatException if a coordinate or an elevation is not a number.
+     */
+    static boolean parseGpx(InputStream inputStream, GpxPointHandler handler) throws XmlPullParserException, IOException {
+        // Initialize XmlPullParser
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XmlPullParser xpp = factory.newPullParser();
+        xpp.setInput(inputStream, null);
+
+        // Ensure this is a GPX file
+        int eventType = xpp.getEventType();
+        if (eventType != XmlPullParser.START_DOCUMENT) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX file");
+            return false;
+        }
+        eventType = xpp.next();
+        if (eventType != XmlPullParser.START_TAG || !xpp.getName().equalsIgnoreCase("gpx")) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX file");
+            return false;
+        }
+
+        // Parse points
+        eventType = xpp.next();
+        Point temporaryPoint = null;
+        String currentTag = null;
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG
+                    && xpp.getName().equalsIgnoreCase("wpt")) {
+                // <wpt>: create a new Point
+                temporaryPoint = new Point();
+                temporaryPoint.setLatitude(parseCoordinate(xpp, "lat"));
+                temporaryPoint.setLongitude(parseCoordinate(xpp, "lon"));
+            } else if (eventType == XmlPullParser.END_TAG
+                    && xpp.getName().equalsIgnoreCase("wpt")) {
+                // </wpt>: hand the new Point over
+                if (temporaryPoint != null && temporaryPoint.isValid() && !handler.onPointParsed(temporaryPoint)) {
+                    return true;
+                }
+                temporaryPoint = null;
+            } else if (eventType == XmlPullParser.START_TAG
+                    && (xpp.getName().equalsIgnoreCase("name") || xpp.getName().equalsIgnoreCase("ele") || xpp.getName().equalsIgnoreCase("desc"))) {
+                // <name> or <ele> or <desc>
+                currentTag = xpp.getName();
+            } else if (eventType == XmlPullParser.END_TAG
+                    && (xpp.getName().equalsIgnoreCase("name") || xpp.getName().equalsIgnoreCase("ele") || xpp.getName().equalsIgnoreCase("desc"))) {
+                // </name> or </ele> or </desc>
+                currentTag = null;
+            } else if (eventType == XmlPullParser.TEXT) {
+                // Text node
+                if (currentTag != null && temporaryPoint != null) {
+                    if (currentTag.equals("name")) {
+                        temporaryPoint.setName(xpp.getText());
+                    } else if (currentTag.equals("ele")) {
+                        temporaryPoint.setAltitude((int) Double.parseDouble(xpp.getText()));
+                    } else if (currentTag.equals("desc")) {
+                        temporaryPoint.setDescription(xpp.getText());
+                    }
+                }
+            }
+            eventType = xpp.next();
+        }
+        return true;
+    }
+
+    // Parses a mandatory coordinate attribute of the current waypoint start tag
+    private static double parseCoordinate(XmlPullParser xpp, String attribute) throws XmlPullParserException {
+        final String value = xpp.getAttributeValue(null, attribute);
+        if (value == null) {
+            throw new XmlPullParserException("Waypoint without " + attribute + " attribute", xpp, null);
+        }
+        return Double.parseDouble(value);
+    }
+
+    private static void closeInputStream(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Formats a coordinate as a plain decimal number, as required by the GPX schema: {@link String#valueOf(double)} would use the scientific notation for very small values.
+     * @param value the coordinate in degrees.
+     * @return the formatted coordinate.
+     */
+    private static String formatGpxDecimal(double value) {
+        return value == 0 || Math.abs(value) >= 1e-3 ? String.valueOf(value) : BigDecimal.valueOf(value).toPlainString();
+    }
+
     /**
      * GPX parser.
      */
@@ -169,68 +487,185 @@ public class PointService {
 
         @Override
         protected Void doInBackground(Void... params) {
+            final List<Point> pointsList = new ArrayList<>();
             try {
-                // Initialize XmlPullParser
-                final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                final XmlPullParser xpp = factory.newPullParser();
-                xpp.setInput(mInputStream, null);
-
-                // Ensure this is a GPX file
-                int eventType = xpp.getEventType();
-                if (eventType != XmlPullParser.START_DOCUMENT) {
-                    if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX file");
-                    return null;
-                }
-                eventType = xpp.next();
-                if (eventType != XmlPullParser.START_TAG || !xpp.getName().equalsIgnoreCase("gpx")) {
-                    if (BuildConfig.DEBUG) Log.d(TAG, "Invalid GPX file");
-                    return null;
+                if (parseGpx(mInputStream, new GpxPointHandler() {
+                    @Override
+                    public boolean onPointParsed(Point point) {
+                        pointsList.add(point);
+                        return true;
+                    }
+                })) {
+                    mPointsList = pointsList;
                 }
+            } catch (XmlPullParserException | IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeInputStream(mInputStream);
+            }
+            return null;
+        }
 
-                // Parse points
-                mPointsList = new ArrayList<>();
-                eventType = xpp.next();
-                Point temporaryPoint = null;
-                String currentTag = null;
-                while (eventType != XmlPullParser.END_DOCUMENT) {
-                    if (eventType == XmlPullParser.START_TAG
-                            && xpp.getName().equalsIgnoreCase("wpt")) {
-                        // <wpt>: create a new Point
-                        temporaryPoint = new Point();
-                        temporaryPoint.setLatitude(Double.parseDouble(xpp.getAttributeValue(null, "lat")));
-                        temporaryPoint.setLongitude(Double.parseDouble(xpp.getAttributeValue(null, "lon")));
-                    } else if (eventType == XmlPullParser.END_TAG
-                            && xpp.getName().equalsIgnoreCase("wpt")) {
-                        // </wpt>: add the new Point to the list
-                        if (temporaryPoint != null && temporaryPoint.isValid()) {
-                            mPointsList.add(temporaryPoint);
-                        }
-                        temporaryPoint = null;
-                    } else if (eventType == XmlPullParser.START_TAG
-                            && (xpp.getName().equalsIgnoreCase("name") || xpp.getName().equalsIgnoreCase("ele") || xpp.getName().equalsIgnoreCase("desc"))) {
-                        // <name> or <ele> or <desc>
-                        currentTag = xpp.getName();
-                    } else if (eventType == XmlPullParser.END_TAG
-                            && (xpp.getName().equalsIgnoreCase("name") || xpp.getName().equalsIgnoreCase("ele") || xpp.getName().equalsIgnoreCase("desc"))) {
-                        // </name> or </ele> or </desc>
-                        currentTag = null;
-                    } else if (eventType == XmlPullParser.TEXT) {
-                        // Text node
-                        if (currentTag != null && temporaryPoint != null) {
-                            if (currentTag.equals("name")) {
-                                temporaryPoint.setName(xpp.getText());
-                            } else if (currentTag.equals("ele")) {
-                                temporaryPoint.setAltitude((int) Double.parseDouble(xpp.getText()));
-                            } else if (currentTag.equals("desc")) {
-                                temporaryPoint.setDescription(xpp.getText());
-                            }
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mListener.onGpxParsed(mPointsList);
+        }
+    }
+
+    /**
+     * Counts the bytes read from the underlying {@link InputStream}.<br>
+     * As the parser reads ahead into a buffer, the count is slightly ahead of the parsed points.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private volatile long mBytesRead;
+
+        private CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                mBytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                mBytesRead += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            mBytesRead += skipped;
+            return skipped;
+        }
+
+        private long getBytesRead() {
+            return mBytesRead;
+        }
+    }
+
+    /**
+     * GPX streaming parser: parses a GPX file and delivers its points by batches.
+     */
+    private class GpxStreamParser extends AsyncTask<Void, GpxStreamParser.Batch, Void> {
+
+        private CountingInputStream mInputStream;
+        private long mTotalBytes;
+        private int mBatchSize;
+        private GpxStreamListener mListener;
+        private List<Point> mBatch;
+        private long mPointsNumber;
+        private int mBatchesNumber;
+        private GpxParsingStats mStats;
+        private Exception mException;
+
+        // A batch of points, with the progress when it was parsed
+        private class Batch {
+            private final List<Point> mPoints;
+            private final long mBytesRead;
+
+            private Batch(List<Point> points, long bytesRead) {
+                mPoints = points;
+                mBytesRead = bytesRead;
+            }
+        }
+
+        public GpxStreamParser(InputStream inputStream, long totalBytes, int batchSize, GpxStreamListener listener) {
+            mInputStream = new CountingInputStream(inputStream);
+            mTotalBytes = totalBytes;
+            mBatchSize = Math.max(1, batchSize);
+            mListener = listener;
+            mBatch = new ArrayList<>(mBatchSize);
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            try {
+                if (!parseGpx(mInputStream, new GpxPointHandler() {
+                    @Override
+                    public boolean onPointParsed(Point point) {
+                        mBatch.add(point);
+                        if (mBatch.size() >= mBatchSize) {
+                            publishBatch();
                         }
+                        return !isCancelled();
                     }
-                    eventType = xpp.next();
+                })) {
+                    mException = new XmlPullParserException("Not a GPX file");
+                }
+            } catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+                // IllegalArgumentException includes the NumberFormatException of an invalid coordinate or elevation
+                mException = e;
+            } finally {
+                closeInputStream(mInputStream);
+                // The points parsed before an error are delivered as well
+                if (!mBatch.isEmpty()) {
+                    publishBatch();
                 }
+                mStats = new GpxParsingStats(mPointsNumber, mBatchesNumber, mInputStream.getBytesRead(), SystemClock.elapsedRealtime() - start);
+            }
+            return null;
+        }
+
+        private void publishBatch() {
+            mPointsNumber += mBatch.size();
+            mBatchesNumber++;
+            publishProgress(new Batch(mBatch, mInputStream.getBytesRead()));
+            mBatch = new ArrayList<>(mBatchSize);
+        }
+
+        @Override
+        protected void onProgressUpdate(Batch... batches) {
+            for (Batch batch : batches) {
+                mListener.onGpxBatch(batch.mPoints);
+                mListener.onGpxProgress(batch.mBytesRead, mTotalBytes);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Parsed " + mStats.getPointsNumber() + " points in " + mStats.getBatchesNumber() + " batches from " + mStats.getBytesRead() + " bytes in " + mStats.getDuration() + " ms");
+            if (mException != null) {
+                mListener.onGpxError(mException, mStats);
+            } else {
+                mListener.onGpxComplete(mStats);
+            }
+        }
+    }
+
+    /**
+     * GPX parser using all the cores, see {@link ParallelGpxParser}.
+     */
+    private class ParallelGpxParserTask extends AsyncTask<Void, Void, Void> {
+
+        private FileInputStream mInputStream;
+        private List<Point> mPointsList;
+        private GpxParserListener mListener;
+
+        public ParallelGpxParserTask(FileInputStream inputStream, GpxParserListener listener) {
+            mInputStream = inputStream;
+            mListener = listener;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                mPointsList = ParallelGpxParser.parse(mInputStream, Runtime.getRuntime().availableProcessors());
             } catch (XmlPullParserException | IOException e) {
                 e.printStackTrace();
+            } finally {
+                closeInputStream(mInputStream);
             }
             return null;
         }
@@ -240,4 +675,196 @@ public class PointService {
             mListener.onGpxParsed(mPointsList);
         }
     }
+
+    /**
+     * GPX points counter.
+     */
+    private class GpxCounter extends AsyncTask<Void, Void, Void> {
+
+        private InputStream mInputStream;
+        private GpxCounterListener mListener;
+        private int mPointsNumber = -1;
+
+        public GpxCounter(InputStream inputStream, GpxCounterListener listener) {
+            mInputStream = inputStream;
+            mListener = listener;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final int[] pointsNumber = new int[1];
+            try {
+                if (parseGpx(mInputStream, new GpxPointHandler() {
+                    @Override
+                    public boolean onPointParsed(Point point) {
+                        pointsNumber[0]++;
+                        return true;
+                    }
+                })) {
+                    mPointsNumber = pointsNumber[0];
+                }
+            } catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+                // IllegalArgumentException includes the NumberFormatException of an invalid coordinate or elevation
+                e.printStackTrace();
+            } finally {
+                closeInputStream(mInputStream);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mListener.onGpxPointsCounted(mPointsNumber);
+        }
+    }
+
+    /**
+     * GPX streaming importer: parses a GPX file and emits batches of {@link Point}s into a bounded queue, blocking while the database writer is behind.
+     */
+    private class GpxImporter extends AsyncTask<Void, Void, Void> {
+
+        private InputStream mInputStream;
+        private BlockingQueue<List<Point>> mQueue;
+        private List<Point> mBatch = new ArrayList<>(GPX_IMPORT_BATCH_SIZE);
+
+        public GpxImporter(InputStream inputStream, BlockingQueue<List<Point>> queue) {
+            mInputStream = inputStream;
+            mQueue = queue;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            boolean failed = true;
+            try {
+                failed = !parseGpx(mInputStream, new GpxPointHandler() {
+                    @Override
+                    public boolean onPointParsed(Point point) {
+                        mBatch.add(point);
+                        if (mBatch.size() >= GPX_IMPORT_BATCH_SIZE) {
+                            try {
+                                mQueue.put(mBatch);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return false;
+                            }
+                            mBatch = new ArrayList<>(GPX_IMPORT_BATCH_SIZE);
+                        }
+                        return true;
+                    }
+                }) || Thread.currentThread().isInterrupted();
+            } catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+                // IllegalArgumentException includes the NumberFormatException of an invalid coordinate or elevation
+                e.printStackTrace();
+            } finally {
+                closeInputStream(mInputStream);
+                // The writer must always receive the last batch and the end marker, otherwise it would wait forever
+                if (!mBatch.isEmpty()) {
+                    putUninterruptibly(mBatch);
+                }
+                putUninterruptibly(failed ? ARDbHelper.END_OF_POINTS_ON_ERROR : ARDbHelper.END_OF_POINTS);
+            }
+            return null;
+        }
+
+        private void putUninterruptibly(List<Point> batch) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mQueue.put(batch);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * GPX exporter: writes the rows of the points {@link Cursor} as GPX waypoints, one at a time.
+     */
+    private class GpxExporter extends AsyncTask<Void, Long, Void> {
+
+        private OutputStream mOutputStream;
+        private ARDbHelper mDbHelper;
+        private long mLayerId;
+        private Location mLocation;
+        private int mDistance;
+        private GpxExportListener mListener;
+        private long mExportedPointsNumber = -1;
+
+        public GpxExporter(OutputStream outputStream, ARDbHelper dbHelper, long layerId, Location location, int distance, GpxExportListener listener) {
+            mOutputStream = outputStream;
+            mDbHelper = dbHelper;
+            mLayerId = layerId;
+            mLocation = location;
+            mDistance = distance;
+            mListener = listener;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            Cursor cursor = null;
+            try {
+                cursor = mDbHelper.queryPointsForExport(mLayerId, mLocation, mDistance);
+                final long totalPointsNumber = cursor.getCount();
+                final XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
+                serializer.setOutput(new BufferedOutputStream(mOutputStream, GPX_EXPORT_BUFFER_SIZE), "UTF-8");
+                serializer.startDocument("UTF-8", true);
+                serializer.setPrefix("", GPX_NAMESPACE);
+                serializer.startTag(GPX_NAMESPACE, "gpx");
+                serializer.attribute(null, "version", "1.1");
+                serializer.attribute(null, "creator", GPX_CREATOR);
+                long exportedPointsNumber = 0;
+                // Columns: id, name, latitude, longitude, altitude, description
+                while (cursor.moveToNext()) {
+                    serializer.startTag(GPX_NAMESPACE, "wpt");
+                    serializer.attribute(null, "lat", formatGpxDecimal(cursor.getDouble(2)));
+                    serializer.attribute(null, "lon", formatGpxDecimal(cursor.getDouble(3)));
+                    // The GPX schema requires this order: ele, name, desc
+                    serializer.startTag(GPX_NAMESPACE, "ele").text(String.valueOf(cursor.getInt(4))).endTag(GPX_NAMESPACE, "ele");
+                    if (!cursor.isNull(1)) {
+                        serializer.startTag(GPX_NAMESPACE, "name").text(cursor.getString(1)).endTag(GPX_NAMESPACE, "name");
+                    }
+                    if (!cursor.isNull(5) && !cursor.getString(5).isEmpty()) {
+                        serializer.startTag(GPX_NAMESPACE, "desc").text(cursor.getString(5)).endTag(GPX_NAMESPACE, "desc");
+                    }
+                    serializer.endTag(GPX_NAMESPACE, "wpt");
+                    if (++exportedPointsNumber % GPX_EXPORT_PROGRESS_INTERVAL == 0) {
+                        publishProgress(exportedPointsNumber, totalPointsNumber);
+                    }
+                }
+                serializer.endTag(GPX_NAMESPACE, "gpx");
+                // Flushes the buffered stream
+                serializer.endDocument();
+                mExportedPointsNumber = exportedPointsNumber;
+                if (BuildConfig.DEBUG) Log.d(TAG, "Exported " + exportedPointsNumber + " points into the GPX file");
+            } catch (XmlPullParserException | IOException | IllegalArgumentException | IllegalStateException e) {
+                e.printStackTrace();
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                try {
+                    mOutputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mExportedPointsNumber = -1;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Long... values) {
+            mListener.onGpxExportProgress(values[0], values[1]);
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mListener.onGpxExported(mExportedPointsNumber);
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package com.louisnard.argps.model.services;
+
+import android.location.Location;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.louisnard.argps.BuildConfig;
+import com.louisnard.argps.model.database.PointSource;
+import com.louisnard.argps.model.objects.PointStore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache of the points of a {@link PointSource}, organised into fixed geographic tiles of {@link #TILE_DEGREES} x {@link #TILE_DEGREES}.<br>
+ *
+ * The points around a location are assembled from the tiles intersecting the search radius: when the user moves, only the newly uncovered tiles are loaded from the {@link PointSource}, the others are already cached.
+ * The least recently used tiles are evicted once the cached tiles hold more than a maximum number of points.
+ * Tiles can also be loaded ahead of time on a background thread with {@link #prefetchAsynchronously(double, double, int)}, for instance where the user is heading.
+ * Repeated searches around the same spot, such as GPS jitter, are answered from the cached tiles without querying the {@link PointSource}.
+ * The names are copied into the tiles when they are loaded, so that reading the assembled points, for instance while drawing them, never queries the {@link PointSource}.<br>
+ * Thread-safe. The cache must be cleared with {@link #clear()} when the points of the {@link PointSource} change.
+ *
+ * @author Alexandre Louisnard
+ */
+public class PointTileCache {
+
+    // Tag
+    private static final String TAG = PointTileCache.class.getSimpleName();
+
+    // Constants
+    // The tile size: about 5.5 km in latitude
+    private static final double TILE_DEGREES = 0.05;
+    private static final long LONGITUDE_TILES = Math.round(360 / TILE_DEGREES);
+
+    private final PointSource mPointSource;
+    private final int mMaxPoints;
+    // Tiles by key, in access order. Tiles are never modified once cached.
+    private final LinkedHashMap<Long, PointStore> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private int mPointsNumber;
+    // Incremented by clear(), so that the tiles loaded meanwhile from the previous points are discarded
+    private long mGeneration;
+    // Tile lookups of getPointsAround() answered from the cache, and loaded from the point source
+    private long mHits;
+    private long mMisses;
+    private final AtomicBoolean mIsPrefetching = new AtomicBoolean();
+
+    /**
+     * Constructs a new instance of {@link PointTileCache}.
+     * @param pointSource the {@link PointSource} to load the tiles from.
+     * @param maxPoints the maximum number of points held by the cached tiles, beyond which the least recently used tiles are evicted.
+     */
+    public PointTileCache(PointSource pointSource, int maxPoints) {
+        mPointSource = pointSource;
+        mMaxPoints = maxPoints;
+    }
+
+    /**
+     * Fills the given {@link PointStore} with the points located within the given distance from the given location, loading the missing tiles from the {@link PointSource}.<br>
+     * Should not be called on the main thread if some tiles may be missing.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param distance the distance in meters from the location within which the points have to be located.
+     * @param pointStore the {@link PointStore} to fill, cleared first, with the names of the points.
+     * @return the same {@link PointStore}, for convenience.
+     */
+    public PointStore getPointsAround(double latitude, double longitude, int distance, PointStore pointStore) {
+        pointStore.clear();
+        pointStore.setNameLoader(null);
+        final double[] box = GeoKernel.boundingBox(latitude, longitude, distance);
+        final long latitudeTileMin = latitudeTile(box[0]);
+        final long latitudeTileMax = latitudeTile(box[1]);
+        final long longitudeTileMin = longitudeTile(box[2]);
+        // Across the antimeridian, the longitude tiles wrap around
+        final long longitudeTileMax = box[2] > box[3] ? longitudeTile(box[3]) + LONGITUDE_TILES : longitudeTile(box[3]);
+        int tilesNumber = 0;
+        int loadedTiles = 0;
+        for (long latitudeTile = latitudeTileMin; latitudeTile <= latitudeTileMax; latitudeTile++) {
+            for (long longitudeTile = longitudeTileMin; longitudeTile <= longitudeTileMax; longitudeTile++) {
+                final long key = key(latitudeTile, longitudeTile % LONGITUDE_TILES);
+                PointStore tile = getTile(key);
+                tilesNumber++;
+                if (tile == null) {
+                    tile = loadTile(key);
+                    loadedTiles++;
+                }
+                for (int i = 0; i < tile.size(); i++) {
+                    if (GeoKernel.distance(latitude, longitude, tile.getLatitude(i), tile.getLongitude(i)) <= distance) {
+                        pointStore.addFrom(tile, i);
+                    }
+                }
+            }
+        }
+        countLookups(tilesNumber - loadedTiles, loadedTiles);
+        if (BuildConfig.DEBUG) Log.d(TAG, "Assembled " + pointStore.size() + " points, " + loadedTiles + " of " + tilesNumber + " tiles loaded from the point source");
+        return pointStore;
+    }
+
+    /**
+     * Loads on a background thread the missing tiles within the given distance from the given location, so that a later {@link #getPointsAround(double, double, int, PointStore)} finds them cached.<br>
+     * Ignored if a prefetch is already running.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param distance the distance in meters.
+     */
+    public void prefetchAsynchronously(final double latitude, final double longitude, final int distance) {
+        if (!mIsPrefetching.compareAndSet(false, true)) {
+            return;
+        }
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    final double[] box = GeoKernel.boundingBox(latitude, longitude, distance);
+                    final long longitudeTileMax = box[2] > box[3] ? longitudeTile(box[3]) + LONGITUDE_TILES : longitudeTile(box[3]);
+                    for (long latitudeTile = latitudeTile(box[0]); latitudeTile <= latitudeTile(box[1]); latitudeTile++) {
+                        for (long longitudeTile = longitudeTile(box[2]); longitudeTile <= longitudeTileMax; longitudeTile++) {
+                            final long key = key(latitudeTile, longitudeTile % LONGITUDE_TILES);
+                            if (getTile(key) == null) {
+                                loadTile(key);
+                            }
+                        }
+                    }
+                } finally {
+                    mIsPrefetching.set(false);
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Removes all tiles. Must be called when the points of the {@link PointSource} change.
+     */
+    public synchronized void clear() {
+        mTiles.clear();
+        mPointsNumber = 0;
+        mGeneration++;
+    }
+
+    /**
+     * Returns the number of tiles needed by {@link #getPointsAround(double, double, int, PointStore)} which were found in the cache.
+     * @return the number of cache hits.
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of tiles needed by {@link #getPointsAround(double, double, int, PointStore)} which had to be loaded from the {@link PointSource}.
+     * @return the number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private synchronized void countLookups(int hits, int misses) {
+        mHits += hits;
+        mMisses += misses;
+    }
+
+    private synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    // Returns the cached tile with the given key, or null
+    private synchronized PointStore getTile(long key) {
+        return mTiles.get(key);
+    }
+
+    /**
+     * Loads a tile from the {@link PointSource} and caches it.<br>
+     * The {@link PointSource} is searched within the circle circumscribing the tile, then the points outside the tile are discarded, so that the tiles never overlap.
+     * The names loaded lazily by the {@link PointSource} are resolved here, on the loading thread.
+     * The cache is not locked meanwhile: a tile loaded twice concurrently is simply replaced.
+     * @param key the tile key.
+     * @return the tile.
+     */
+    private PointStore loadTile(long key) {
+        final double latitudeMin = (key >> 32) * TILE_DEGREES - 90;
+        final double longitudeMin = (key & 0xFFFFFFFFL) * TILE_DEGREES - 180;
+        final double latitudeMax = latitudeMin + TILE_DEGREES;
+        final double longitudeMax = longitudeMin + TILE_DEGREES;
+        final long generation = getGeneration();
+        final Location center = new Location("");
+        center.setLatitude(latitudeMin + TILE_DEGREES / 2);
+        center.setLongitude(longitudeMin + TILE_DEGREES / 2);
+        // The corners on the equator side are the farthest from the center
+        final double cornerLatitude = Math.abs(latitudeMin) < Math.abs(latitudeMax) ? latitudeMin : latitudeMax;
+        final int radius = (int) Math.ceil(GeoKernel.distance(center.getLatitude(), center.getLongitude(), cornerLatitude, longitudeMin)) + 1;
+
+        final PointStore points = mPointSource.getPointsAround(center, radius, new PointStore());
+        final PointStore tile = new PointStore(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            final double latitude = points.getLatitude(i);
+            final double longitude = points.getLongitude(i);
+            if (latitude >= latitudeMin && (latitude < latitudeMax || latitudeMax >= 90) && longitude >= longitudeMin && (longitude < longitudeMax || longitudeMax >= 180)) {
+                tile.add(points.getId(i), latitude, longitude, points.getAltitude(i), points.getName(i));
+            }
+        }
+        putTile(key, tile, generation);
+        return tile;
+    }
+
+    // Caches a tile, unless the cache has been cleared since it started loading, and evicts the least recently used tiles beyond the maximum number of points, keeping at least the new tile
+    private synchronized void putTile(long key, PointStore tile, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        final PointStore previousTile = mTiles.put(key, tile);
+        if (previousTile != null) {
+            mPointsNumber -= previousTile.size();
+        }
+        mPointsNumber += tile.size();
+        final Iterator<Map.Entry<Long, PointStore>> iterator = mTiles.entrySet().iterator();
+        while (mPointsNumber > mMaxPoints && mTiles.size() > 1 && iterator.hasNext()) {
+            final Map.Entry<Long, PointStore> eldest = iterator.next();
+            if (eldest.getKey() != key) {
+                mPointsNumber -= eldest.getValue().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long latitudeTile(double latitude) {
+        return Math.min((long) Math.floor((latitude + 90) / TILE_DEGREES), Math.round(180 / TILE_DEGREES) - 1);
+    }
+
+    private static long longitudeTile(double longitude) {
+        return Math.min((long) Math.floor((longitude + 180) / TILE_DEGREES), LONGITUDE_TILES - 1);
+    }
+
+    private static long key(long latitudeTile, long longitudeTile) {
+        return (latitudeTile << 32) | longitudeTile;
+    }
+}
@@ -0,0 +1,180 @@
+package com.louisnard.argps.model.services;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.louisnard.argps.BuildConfig;
+import com.louisnard.argps.model.objects.AzimuthIndex;
+import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.objects.PointsScene;
+
+/**
+ * Builds the {@link PointsScene} around the user location on a background thread: loads the points from a {@link PointTileCache} and computes their relative geometry.<br>
+ *
+ * Only the latest request matters: a new request cancels the one in progress, and a superseded {@link PointsScene} is never published.
+ * When the points do not need to be reloaded, the points of the last published {@link PointsScene} are reused and only their geometry is recomputed, repairing the azimuth order incrementally.<br>
+ * Must be used from the main thread, on which the {@link PointsSceneLoaderListener} is notified.
+ *
+ * @author Alexandre Louisnard
+ */
+public class PointsSceneLoader {
+
+    // Tag
+    private static final String TAG = PointsSceneLoader.class.getSimpleName();
+
+    private final PointTileCache mPointTileCache;
+    private final int mDistance;
+    private final PointsSceneLoaderListener mListener;
+    // The last published scene and the latest request, if still in progress
+    private PointsScene mPointsScene;
+    private PointsSceneTask mTask;
+
+    // Metrics
+    private long mLastQueryLatency;
+    private long mTotalQueryLatency;
+    private int mQueriesNumber;
+    private int mCancelledQueriesNumber;
+
+    /**
+     * Interface definition for callbacks to be invoked on the main thread when a {@link PointsScene} has been built.
+     */
+    public interface PointsSceneLoaderListener {
+        /**
+         * Called when the {@link PointsScene} of the latest request has been built.
+         * @param pointsScene the {@link PointsScene}.
+         */
+        void onPointsSceneLoaded(PointsScene pointsScene);
+    }
+
+    /**
+     * Constructs a new instance of {@link PointsSceneLoader}.
+     * @param pointTileCache the {@link PointTileCache} to load the points from.
+     * @param distance the distance in meters from the user location within which the points are loaded.
+     * @param listener the {@link PointsSceneLoaderListener} to notify.
+     */
+    public PointsSceneLoader(PointTileCache pointTileCache, int distance, PointsSceneLoaderListener listener) {
+        mPointTileCache = pointTileCache;
+        mDistance = distance;
+        mListener = listener;
+    }
+
+    /**
+     * Requests a new {@link PointsScene} for the given user location, cancelling the previous request if still in progress.
+     * @param userPoint the user location point.
+     * @param reloadPoints <b>true</b> to reload the points around the user location, <b>false</b> to only recompute the geometry of the points already loaded. The points are reloaded anyway if none have been loaded yet, or if the cancelled request had to reload them.
+     */
+    public void load(Point userPoint, boolean reloadPoints) {
+        boolean reload = reloadPoints || mPointsScene == null;
+        if (mTask != null) {
+            reload |= mTask.mReloadPoints;
+            mTask.cancel(false);
+        }
+        mTask = new PointsSceneTask(userPoint, reload, mPointsScene, SystemClock.elapsedRealtime());
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Cancels the request in progress, if any: its {@link PointsScene} will not be published.
+     */
+    public void cancel() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    // Getters
+    /**
+     * Returns the last published {@link PointsScene}.
+     * @return the {@link PointsScene}, or <b>null</b> if none has been published yet.
+     */
+    public PointsScene getPointsScene() {
+        return mPointsScene;
+    }
+
+    /**
+     * Returns the latency of the last published {@link PointsScene}, from its request to its publication.
+     * @return the latency in milliseconds.
+     */
+    public long getLastQueryLatency() {
+        return mLastQueryLatency;
+    }
+
+    /**
+     * Returns the average latency of the published {@link PointsScene}s, from their request to their publication.
+     * @return the average latency in milliseconds, or 0 if none has been published yet.
+     */
+    public long getAverageQueryLatency() {
+        return mQueriesNumber > 0 ? mTotalQueryLatency / mQueriesNumber : 0;
+    }
+
+    /**
+     * Returns the number of requests cancelled before completion because a newer request superseded them.
+     * @return the number of cancelled requests.
+     */
+    public int getCancelledQueriesNumber() {
+        return mCancelledQueriesNumber;
+    }
+
+    private class PointsSceneTask extends AsyncTask<Void, Void, PointsScene> {
+
+        private final Point mUserPoint;
+        private final boolean mReloadPoints;
+        private final PointsScene mPreviousPointsScene;
+        private final long mRequestTime;
+
+        private PointsSceneTask(Point userPoint, boolean reloadPoints, PointsScene previousPointsScene, long requestTime) {
+            mUserPoint = userPoint;
+            mReloadPoints = reloadPoints;
+            mPreviousPointsScene = previousPointsScene;
+            mRequestTime = requestTime;
+        }
+
+        @Override
+        protected PointsScene doInBackground(Void... params) {
+            // The points of the previous scene are only read, never modified
+            final PointStore points = mReloadPoints ? mPointTileCache.getPointsAround(mUserPoint.getLatitude(), mUserPoint.getLongitude(), mDistance, new PointStore()) : mPreviousPointsScene.getPoints();
+            if (isCancelled()) {
+                return null;
+            }
+            final float[] azimuths = new float[points.size()];
+            final float[] verticalAngles = new float[points.size()];
+            final int[] distances = new int[points.size()];
+            PointService.computeRelativeGeometry(mUserPoint, points, azimuths, verticalAngles, distances);
+            if (isCancelled()) {
+                return null;
+            }
+            final AzimuthIndex azimuthIndex = new AzimuthIndex();
+            if (mReloadPoints) {
+                azimuthIndex.build(azimuths, points.size());
+            } else {
+                // Small move: the azimuth order is nearly unchanged and only needs to be repaired
+                azimuthIndex.copyFrom(mPreviousPointsScene.getAzimuthIndex());
+                final int movedPoints = azimuthIndex.update(azimuths, points.size());
+                if (BuildConfig.DEBUG) Log.d(TAG, movedPoints >= 0 ? "Azimuth order repaired by moving " + movedPoints + " points" : "Azimuth order fully rebuilt");
+            }
+            return new PointsScene(mUserPoint, points, azimuthIndex, verticalAngles, distances, SystemClock.elapsedRealtime() - mRequestTime);
+        }
+
+        @Override
+        protected void onPostExecute(PointsScene pointsScene) {
+            if (this != mTask) {
+                return;
+            }
+            mTask = null;
+            mPointsScene = pointsScene;
+            mLastQueryLatency = pointsScene.getQueryLatency();
+            mTotalQueryLatency += mLastQueryLatency;
+            mQueriesNumber++;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Built a scene of " + pointsScene.getPoints().size() + " points in " + mLastQueryLatency + " ms (average: " + getAverageQueryLatency() + " ms, cancelled: " + mCancelledQueriesNumber + ")");
+            mListener.onPointsSceneLoaded(pointsScene);
+        }
+
+        @Override
+        protected void onCancelled(PointsScene pointsScene) {
+            mCancelledQueriesNumber++;
+        }
+    }
+}
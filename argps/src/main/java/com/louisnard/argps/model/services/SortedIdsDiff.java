@@ -0,0 +1,97 @@
+package com.louisnard.argps.model.services;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Arrays;
+
+/**
+ * Helper class that calculates the difference between two lists of ids sorted in ascending order, such as two snapshots of the ids of a table.<br>
+ *
+ * Since both lists are sorted, a single merge pass finds the removed and inserted ids in O(n + m), whereas {@link android.support.v7.util.DiffUtil} costs O((n + m) x d) and is too slow when a large table is cleared or imported.
+ * The result can be calculated on a background thread, then dispatched to a {@link ListUpdateCallback} such as a {@link android.support.v7.widget.RecyclerView.Adapter} on the main thread.
+ *
+ * @author Alexandre Louisnard
+ */
+public class SortedIdsDiff {
+
+    // Update types
+    private static final int REMOVED = 0;
+    private static final int INSERTED = 1;
+
+    // Updates, as triples: [type0, position0, count0, type1, position1, count1...]
+    private int[] mUpdates = new int[3 * 8];
+    private int mUpdatesLength;
+
+    // Private constructor: use calculateDiff()
+    private SortedIdsDiff() {}
+
+    /**
+     * Calculates the updates turning {@param oldIds} into {@param newIds}.
+     * @param oldIds the old ids, sorted in ascending order without duplicates.
+     * @param newIds the new ids, sorted in ascending order without duplicates.
+     * @return the {@link SortedIdsDiff}, to dispatch with {@link #dispatchUpdatesTo(ListUpdateCallback)}.
+     */
+    public static SortedIdsDiff calculateDiff(long[] oldIds, long[] newIds) {
+        final SortedIdsDiff diff = new SortedIdsDiff();
+        // The position of the current item in the list being updated, with the previous updates applied
+        int position = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldIds.length || j < newIds.length) {
+            if (j == newIds.length || (i < oldIds.length && oldIds[i] < newIds[j])) {
+                diff.addUpdate(REMOVED, position);
+                i++;
+            } else if (i == oldIds.length || newIds[j] < oldIds[i]) {
+                diff.addUpdate(INSERTED, position);
+                position++;
+                j++;
+            } else {
+                position++;
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Dispatches the updates, in order, to the given {@link ListUpdateCallback}.
+     * @param callback the {@link ListUpdateCallback}.
+     */
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        for (int u = 0; u < mUpdatesLength; u += 3) {
+            if (mUpdates[u] == REMOVED) {
+                callback.onRemoved(mUpdates[u + 1], mUpdates[u + 2]);
+            } else {
+                callback.onInserted(mUpdates[u + 1], mUpdates[u + 2]);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the two lists of ids are the same.
+     * @return <b>true</b> if there is no update to dispatch.
+     */
+    public boolean isEmpty() {
+        return mUpdatesLength == 0;
+    }
+
+    // Adds a single item update, merged with the previous update when contiguous
+    private void addUpdate(int type, int position) {
+        if (mUpdatesLength > 0 && mUpdates[mUpdatesLength - 3] == type) {
+            final int lastPosition = mUpdates[mUpdatesLength - 2];
+            final int lastCount = mUpdates[mUpdatesLength - 1];
+            // Consecutive removals happen at the same position, consecutive insertions at the next one
+            if ((type == REMOVED && position == lastPosition) || (type == INSERTED && position == lastPosition + lastCount)) {
+                mUpdates[mUpdatesLength - 1]++;
+                return;
+            }
+        }
+        if (mUpdatesLength + 3 > mUpdates.length) {
+            mUpdates = Arrays.copyOf(mUpdates, 2 * mUpdates.length);
+        }
+        mUpdates[mUpdatesLength++] = type;
+        mUpdates[mUpdatesLength++] = position;
+        mUpdates[mUpdatesLength++] = 1;
+    }
+}
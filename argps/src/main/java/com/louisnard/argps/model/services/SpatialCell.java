@@ -0,0 +1,145 @@
+package com.louisnard.argps.model.services;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Helper class that computes spatial cell ids: Morton codes (Z-order curve) interleaving the bits of the quantized latitude and longitude.<br>
+ *
+ * Points that are close to each other mostly have close cell ids, so that an index on the cell id clusters the points by locality.
+ * A geographic area is covered by a small set of contiguous cell id ranges, which can be searched with indexed range scans.<br>
+ * Cell ids are computed at the finest level {@link #LEVELS}: about 0.3m x 0.6m at the equator.
+ *
+ * @author Alexandre Louisnard
+ */
+public class SpatialCell {
+
+    // Constants
+    // The number of bits used to quantize the latitude and the longitude each, i.e. the number of levels of subdivision
+    public static final int LEVELS = 26;
+    // The maximum number of cells per axis when covering an area
+    private static final int MAX_CELLS_PER_AXIS = 4;
+
+    // Private constructor to prevent accidental instantiation
+    private SpatialCell() {}
+
+    /**
+     * Returns the cell id of the given location.
+     * @param latitude the latitude in degrees, from -90° to 90°.
+     * @param longitude the longitude in degrees, from -180° to 180°.
+     * @return the cell id, a positive number lower than 2^(2x{@link #LEVELS}).
+     */
+    public static long cellId(double latitude, double longitude) {
+        return interleave(quantizeLatitude(latitude, LEVELS), quantizeLongitude(longitude, LEVELS));
+    }
+
+    /**
+     * Returns the sorted and merged cell id ranges covering the given bounding box.<br>
+     * If {@param lonMin} is greater than {@param lonMax}, the box is considered as crossing the antimeridian.
+     * @param latMin the minimum latitude in degrees.
+     * @param latMax the maximum latitude in degrees.
+     * @param lonMin the minimum longitude in degrees.
+     * @param lonMax the maximum longitude in degrees.
+     * @return the ranges, as an array of pairs: [from0, to0, from1, to1...], both bounds included.
+     */
+    public static long[] coverBox(double latMin, double latMax, double lonMin, double lonMax) {
+        if (lonMin > lonMax) {
+            // Crossing the antimeridian: cover both sides
+            final long[] west = coverBox(latMin, latMax, lonMin, 180);
+            final long[] east = coverBox(latMin, latMax, -180, lonMax);
+            final long[] ranges = Arrays.copyOf(west, west.length + east.length);
+            System.arraycopy(east, 0, ranges, west.length, east.length);
+            return mergeRanges(ranges);
+        }
+        // Find the finest level at which the box is covered by a few cells per axis
+        int level = LEVELS;
+        while (level > 0
+                && (quantizeLatitude(latMax, level) - quantizeLatitude(latMin, level) >= MAX_CELLS_PER_AXIS
+                || quantizeLongitude(lonMax, level) - quantizeLongitude(lonMin, level) >= MAX_CELLS_PER_AXIS)) {
+            level--;
+        }
+        final int yMin = quantizeLatitude(latMin, level);
+        final int yMax = quantizeLatitude(latMax, level);
+        final int xMin = quantizeLongitude(lonMin, level);
+        final int xMax = quantizeLongitude(lonMax, level);
+        // Each cell at this level is a contiguous range of cell ids at the finest level
+        final int shift = 2 * (LEVELS - level);
+        final long[] ranges = new long[2 * (yMax - yMin + 1) * (xMax - xMin + 1)];
+        int i = 0;
+        for (int y = yMin; y <= yMax; y++) {
+            for (int x = xMin; x <= xMax; x++) {
+                final long prefix = interleave(y, x);
+                ranges[i++] = prefix << shift;
+                ranges[i++] = ((prefix + 1) << shift) - 1;
+            }
+        }
+        return mergeRanges(ranges);
+    }
+
+    // Helper methods
+    /**
+     * Sorts the given ranges and merges the contiguous or overlapping ones.
+     * @param ranges the ranges, as an array of pairs.
+     * @return the merged ranges, as an array of pairs.
+     */
+    private static long[] mergeRanges(long[] ranges) {
+        final int count = ranges.length / 2;
+        // Sort the ranges by their lower bound
+        final long[][] pairs = new long[count][];
+        for (int i = 0; i < count; i++) {
+            pairs[i] = new long[] {ranges[2 * i], ranges[2 * i + 1]};
+        }
+        Arrays.sort(pairs, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        final long[] merged = new long[ranges.length];
+        int n = 0;
+        for (long[] pair : pairs) {
+            if (n > 0 && pair[0] <= merged[n - 1] + 1) {
+                merged[n - 1] = Math.max(merged[n - 1], pair[1]);
+            } else {
+                merged[n++] = pair[0];
+                merged[n++] = pair[1];
+            }
+        }
+        return Arrays.copyOf(merged, n);
+    }
+
+    // Coarser levels are derived from the finest one so that a coarse cell always contains exactly the cell ids of its points
+    private static int quantizeLatitude(double latitude, int level) {
+        return quantize((latitude + 90) / 180) >> (LEVELS - level);
+    }
+
+    private static int quantizeLongitude(double longitude, int level) {
+        return quantize((longitude + 180) / 360) >> (LEVELS - level);
+    }
+
+    private static int quantize(double ratio) {
+        final int cells = 1 << LEVELS;
+        final int cell = (int) Math.floor(ratio * cells);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * Interleaves the bits of y (latitude) and x (longitude): bit i of x goes to bit 2i and bit i of y goes to bit 2i+1.
+     * @param y the quantized latitude.
+     * @param x the quantized longitude.
+     * @return the Morton code.
+     */
+    private static long interleave(int y, int x) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+}
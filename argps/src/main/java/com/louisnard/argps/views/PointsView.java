@@ -15,7 +15,11 @@ import android.view.View;
 
 import com.louisnard.argps.BuildConfig;
 import com.louisnard.argps.R;
+import com.louisnard.argps.model.objects.AzimuthIndex;
 import com.louisnard.argps.model.objects.Point;
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.objects.PointsScene;
+import com.louisnard.argps.model.services.PointService;
 
 import java.util.SortedMap;
 
@@ -35,6 +39,7 @@ public class PointsView extends View {
 
     // Points
     private SortedMap<Float, Point> mPoints;
+    private PointsScene mPointsScene;
     private Point mUserPoint;
 
     // Device and view orientations
@@ -54,6 +59,7 @@ public class PointsView extends View {
     // Drawing
     private final TextPaint mTextPaint;
     private String mPointText;
+    private int[] mVisiblePointPositions = new int[0];
 
     public PointsView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
@@ -96,6 +102,24 @@ public class PointsView extends View {
         if (BuildConfig.DEBUG) Log.d(TAG, "Updating points list with " + (points != null ? points.size() : 0) + " points");
         mUserPoint = userPoint;
         mPoints = points;
+        mPointsScene = null;
+        invalidate();
+    }
+
+    /**
+     * Sets the {@link PointsScene} that will be displayed in the {@link PointsView}, with the relative geometry of its points precomputed by {@link PointService#computeRelativeGeometry(Point, PointStore, float[], float[], int[])}.<br>
+     * Contrary to {@link #setPoints(Point, SortedMap)}, drawing these points does not involve any calculation nor any {@link android.location.Location} object, and only the points within the camera horizontal angle of view are iterated.<br>
+     * The {@link PointsScene} being immutable, the points and their geometry are all replaced at once.
+     * @param pointsScene the {@link PointsScene}, or <b>null</b> to display no points.
+     */
+    public void setPointsScene(PointsScene pointsScene) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "Updating points scene with " + (pointsScene != null ? pointsScene.getPoints().size() : 0) + " points");
+        mUserPoint = pointsScene != null ? pointsScene.getUserPoint() : null;
+        mPoints = null;
+        mPointsScene = pointsScene;
+        if (pointsScene != null && mVisiblePointPositions.length < pointsScene.getAzimuthIndex().size()) {
+            mVisiblePointPositions = new int[pointsScene.getAzimuthIndex().size()];
+        }
         invalidate();
     }
 
@@ -118,7 +142,7 @@ public class PointsView extends View {
         mRoll = roll;
 
         // Update view
-        if (mPoints != null) {
+        if (mPoints != null || mPointsScene != null) {
             invalidate();
         }
     }
@@ -155,6 +179,28 @@ public class PointsView extends View {
                     canvas.restore();
                 }
             }
+        } else if (mPointsScene != null && mPointsScene.getAzimuthIndex().size() > 0) {
+            // Only iterate the points within the camera horizontal angle of view
+            final PointStore pointStore = mPointsScene.getPoints();
+            final AzimuthIndex azimuthIndex = mPointsScene.getAzimuthIndex();
+            final int visiblePointsNumber = azimuthIndex.queryWindow(mAzimuthViewLeft, mAzimuthViewRight, mVisiblePointPositions);
+            for (int i = 0; i < visiblePointsNumber; i++) {
+                final int index = azimuthIndex.getIndex(mVisiblePointPositions[i]);
+                final int[] xy = getPixelCoordinates(azimuthIndex.getAzimuth(mVisiblePointPositions[i]), mPointsScene.getVerticalAngle(index));
+                if (xy != null) {
+                    // Draw arrow
+                    final Drawable drawable = getResources().getDrawable(R.drawable.ic_arrow_drop_down_24dp, null);
+                    drawable.setBounds(xy[0] - ARROW_SIZE/2, xy[1] - ARROW_SIZE, xy[0] + ARROW_SIZE/2, xy[1]);
+                    drawable.draw(canvas);
+                    // Draw text
+                    final String pointText = String.format(mPointText, pointStore.getName(index), pointStore.getAltitude(index), mPointsScene.getDistance(index));
+                    final StaticLayout mTextLayout = new StaticLayout(pointText, mTextPaint, canvas.getWidth(), Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+                    canvas.save();
+                    canvas.translate(xy[0], xy[1] - ARROW_SIZE - 50);
+                    mTextLayout.draw(canvas);
+                    canvas.restore();
+                }
+            }
         }
     }
 
@@ -0,0 +1,141 @@
+package com.louisnard.argps;
+
+import com.louisnard.argps.model.objects.AzimuthIndex;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit testing for the {@link AzimuthIndex} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class AzimuthIndexTest {
+
+    /**
+     * Tests {@link AzimuthIndex#build(float[], int)} sorting, including points with the exact same azimuth.
+     */
+    @Test
+    public void test_build() {
+        final AzimuthIndex azimuthIndex = new AzimuthIndex();
+        final float[] azimuths = new float[] {180, 90, 270, 90, 0, 359.5f, 12};
+        azimuthIndex.build(azimuths, azimuths.length);
+        assertEquals(azimuths.length, azimuthIndex.size());
+        for (int position = 1; position < azimuthIndex.size(); position++) {
+            assertEquals(true, azimuthIndex.getAzimuth(position - 1) <= azimuthIndex.getAzimuth(position));
+        }
+        for (int position = 0; position < azimuthIndex.size(); position++) {
+            assertEquals(azimuths[azimuthIndex.getIndex(position)], azimuthIndex.getAzimuth(position), 0);
+        }
+        // Both points at 90° are kept
+        assertEquals(90, azimuthIndex.getAzimuth(2), 0);
+        assertEquals(90, azimuthIndex.getAzimuth(3), 0);
+
+        // Build again with less points
+        azimuthIndex.build(azimuths, 2);
+        assertEquals(2, azimuthIndex.size());
+        assertEquals(1, azimuthIndex.getIndex(0));
+        assertEquals(0, azimuthIndex.getIndex(1));
+    }
+
+    /**
+     * Tests {@link AzimuthIndex#queryWindow(float, float, int[])}, including windows wrapping around North.
+     */
+    @Test
+    public void test_queryWindow() {
+        final AzimuthIndex azimuthIndex = new AzimuthIndex();
+        final float[] azimuths = new float[] {180, 90, 270, 90, 0, 359.5f, 12};
+        azimuthIndex.build(azimuths, azimuths.length);
+        final int[] result = new int[azimuthIndex.size()];
+
+        // Normal window
+        int count = azimuthIndex.queryWindow(60, 120, result);
+        assertEquals(2, count);
+        assertEquals(90, azimuthIndex.getAzimuth(result[0]), 0);
+        assertEquals(90, azimuthIndex.getAzimuth(result[1]), 0);
+
+        // Bounds are included
+        count = azimuthIndex.queryWindow(90, 180, result);
+        assertEquals(3, count);
+
+        // Empty window
+        count = azimuthIndex.queryWindow(100, 170, result);
+        assertEquals(0, count);
+
+        // Window wrapping around North with a negative left side
+        count = azimuthIndex.queryWindow(-20, 30, result);
+        assertEquals(3, count);
+        assertEquals(359.5f, azimuthIndex.getAzimuth(result[0]), 0);
+        assertEquals(0, azimuthIndex.getAzimuth(result[1]), 0);
+        assertEquals(12, azimuthIndex.getAzimuth(result[2]), 0);
+
+        // Window wrapping around North with a right side over 360°
+        count = azimuthIndex.queryWindow(340, 372, result);
+        assertEquals(3, count);
+        assertEquals(359.5f, azimuthIndex.getAzimuth(result[0]), 0);
+
+        // Full circle
+        count = azimuthIndex.queryWindow(-10, 350, result);
+        assertEquals(azimuths.length, count);
+
+        // Empty index
+        azimuthIndex.clear();
+        assertEquals(0, azimuthIndex.queryWindow(0, 90, result));
+    }
+
+    /**
+     * Tests {@link AzimuthIndex#update(float[], int)} incremental order repair.
+     */
+    @Test
+    public void test_update() {
+        final AzimuthIndex azimuthIndex = new AzimuthIndex();
+        final float[] azimuths = new float[] {10, 20, 30, 40, 50, 359};
+        azimuthIndex.build(azimuths, azimuths.length);
+
+        // Unchanged order
+        azimuths[0] = 11;
+        assertEquals(0, azimuthIndex.update(azimuths, azimuths.length));
+        assertEquals(11, azimuthIndex.getAzimuth(0), 0);
+
+        // Two points swapped
+        azimuths[1] = 32;
+        assertEquals(1, azimuthIndex.update(azimuths, azimuths.length));
+        assertEquals(2, azimuthIndex.getIndex(1));
+        assertEquals(1, azimuthIndex.getIndex(2));
+        assertEquals(32, azimuthIndex.getAzimuth(2), 0);
+
+        // A point crossing North
+        azimuths[5] = 0.5f;
+        assertEquals(1, azimuthIndex.update(azimuths, azimuths.length));
+        assertEquals(5, azimuthIndex.getIndex(0));
+        for (int position = 1; position < azimuthIndex.size(); position++) {
+            assertEquals(true, azimuthIndex.getAzimuth(position - 1) <= azimuthIndex.getAzimuth(position));
+            assertEquals(azimuths[azimuthIndex.getIndex(position)], azimuthIndex.getAzimuth(position), 0);
+        }
+
+        // Different number of points: full rebuild
+        assertEquals(-1, azimuthIndex.update(azimuths, 3));
+        assertEquals(3, azimuthIndex.size());
+    }
+
+    /**
+     * Tests that updating a copy made with {@link AzimuthIndex#copyFrom(AzimuthIndex)} leaves the original {@link AzimuthIndex} unchanged.
+     */
+    @Test
+    public void test_copyFrom() {
+        final AzimuthIndex azimuthIndex = new AzimuthIndex();
+        final float[] azimuths = new float[] {10, 20, 30};
+        azimuthIndex.build(azimuths, azimuths.length);
+        final AzimuthIndex copy = new AzimuthIndex();
+        copy.copyFrom(azimuthIndex);
+        assertEquals(3, copy.size());
+
+        azimuths[0] = 25;
+        assertEquals(1, copy.update(azimuths, azimuths.length));
+        assertEquals(1, copy.getIndex(0));
+        assertEquals(0, azimuthIndex.getIndex(0));
+        assertEquals(10, azimuthIndex.getAzimuth(0), 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.louisnard.argps;
+
+import com.louisnard.argps.model.database.BinaryPointFile;
+import com.louisnard.argps.model.objects.PointStore;
+import com.louisnard.argps.model.services.GeoKernel;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit testing for the {@link BinaryPointFile} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class BinaryPointFileTest {
+
+    /**
+     * Tests that a {@link BinaryPointFile} written with {@link BinaryPointFile#write(PointStore, File)} finds the same points as a full scan, including around the antimeridian.
+     */
+    @Test
+    public void test_getPointsAround() throws IOException {
+        final Random random = new Random(42);
+        final PointStore points = new PointStore();
+        // Points around Grenoble and around the antimeridian
+        for (int i = 0; i < 5000; i++) {
+            points.add(0, 45 + random.nextDouble() * 0.5, 5.5 + random.nextDouble() * 0.5, random.nextInt(4000), "Point " + i);
+            final double longitude = 179.75 + random.nextDouble() * 0.5;
+            points.add(0, -17 + random.nextDouble() * 0.5, longitude > 180 ? longitude - 360 : longitude, random.nextInt(100), i % 2 == 0 ? "Île " + i : null);
+        }
+        final File file = File.createTempFile("points", ".bin");
+        try {
+            BinaryPointFile.write(points, file);
+            final BinaryPointFile binaryPointFile = BinaryPointFile.open(file);
+            assertEquals(points.size(), binaryPointFile.size());
+
+            final double[][] searches = new double[][] {{45.19, 5.72, 10000}, {-16.8, 180, 15000}, {-16.8, -179.9, 5000}, {0, 0, 10000}};
+            final PointStore result = new PointStore();
+            for (double[] search : searches) {
+                int expected = 0;
+                for (int i = 0; i < points.size(); i++) {
+                    if (GeoKernel.distance(search[0], search[1], points.getLatitude(i), points.getLongitude(i)) <= search[2]) {
+                        expected++;
+                    }
+                }
+                binaryPointFile.getPointsAround(search[0], search[1], search[2], result);
+                assertEquals(expected, result.size());
+                for (int i = 0; i < result.size(); i++) {
+                    assertEquals(true, GeoKernel.distance(search[0], search[1], result.getLatitude(i), result.getLongitude(i)) <= search[2]);
+                }
+            }
+
+            // Names are loaded lazily from the names heap
+            binaryPointFile.getPointsAround(45.19, 5.72, 10000, result);
+            assertEquals(true, result.getName(0).startsWith("Point "));
+            assertEquals(null, binaryPointFile.getPointName(-1));
+            assertEquals(null, binaryPointFile.getPointName(binaryPointFile.size()));
+        } finally {
+            file.delete();
+        }
+    }
+}
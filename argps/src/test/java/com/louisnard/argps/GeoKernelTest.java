@@ -0,0 +1,161 @@
+package com.louisnard.argps;
+
+import com.louisnard.argps.model.services.GeoKernel;
+import com.louisnard.argps.model.services.PointService;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit testing for the {@link GeoKernel} class.<br>
+ * Reference values are from the website http://www.movable-type.co.uk/scripts/latlong.html
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class GeoKernelTest {
+
+    // Error tolerance for calculations
+    private final static double ERROR_TOLERANCE = 0.003;
+
+    // Locations
+    private final static double DEVELOPERS_HOME_LATITUDE = 45.1916626;
+    private final static double DEVELOPERS_HOME_LONGITUDE = 5.7385538;
+    private final static int DEVELOPERS_HOME_ALTITUDE = 220;
+
+    /**
+     * Tests static method {@link GeoKernel#distance(double, double, double, double)}.
+     */
+    @Test
+    public void test_distance() {
+        double distance;
+
+        distance = 0;
+        assertEquals(distance, GeoKernel.distance(0, 0, 0, 0), 0);
+        assertEquals(distance, GeoKernel.distance(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE), 0);
+
+        distance = 2 * Math.PI * PointService.EARTH_RADIUS / 4;
+        assertEquals(distance, GeoKernel.distance(0, 0, 90, 0), ERROR_TOLERANCE * distance);
+        assertEquals(distance, GeoKernel.distance(0, 0, -90, 0), ERROR_TOLERANCE * distance);
+
+        distance = 2 * Math.PI * PointService.EARTH_RADIUS / 2;
+        assertEquals(distance, GeoKernel.distance(0, 0, 0, 180), ERROR_TOLERANCE * distance);
+        assertEquals(distance, GeoKernel.distance(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, -DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE - 180), ERROR_TOLERANCE * distance);
+
+        // Mont Rachais
+        distance = 5578;
+        assertEquals(distance, GeoKernel.distance(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, 45.2417, 5.7436), ERROR_TOLERANCE * distance);
+        assertEquals(distance, GeoKernel.distance(45.2417, 5.7436, DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE), ERROR_TOLERANCE * distance);
+
+        // Across the antimeridian
+        distance = 2 * PointService.degreesToMeters(0.5);
+        assertEquals(distance, GeoKernel.distance(0, 179.5, 0, -179.5), ERROR_TOLERANCE * distance);
+    }
+
+    /**
+     * Tests static method {@link GeoKernel#azimuth(double, double, double, double)}.
+     */
+    @Test
+    public void test_azimuth() {
+        assertEquals(0, GeoKernel.azimuth(0, 0, 90, 0), ERROR_TOLERANCE * 360);
+        assertEquals(0, GeoKernel.azimuth(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, 90, 0), ERROR_TOLERANCE * 360);
+        assertEquals(180, GeoKernel.azimuth(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, -90, 0), ERROR_TOLERANCE * 360);
+        assertEquals(90, GeoKernel.azimuth(0, 0, 0, 10), ERROR_TOLERANCE * 360);
+        assertEquals(270, GeoKernel.azimuth(0, 0, 0, -10), ERROR_TOLERANCE * 360);
+        assertEquals(90, GeoKernel.azimuth(0, 179.5, 0, -179.5), ERROR_TOLERANCE * 360);
+        // Mont Rachais is slightly East of North from the developer's home
+        assertEquals(4, GeoKernel.azimuth(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, 45.2417, 5.7436), 1);
+    }
+
+    /**
+     * Tests static method {@link GeoKernel#boundingBox(double, double, double)}.
+     */
+    @Test
+    public void test_boundingBox() {
+        double[] box;
+
+        // At the equator, the box is a square in degrees
+        box = GeoKernel.boundingBox(0, 0, 10000);
+        assertEquals(-PointService.metersToDegrees(10000), box[0], 1e-9);
+        assertEquals(PointService.metersToDegrees(10000), box[1], 1e-9);
+        assertEquals(-PointService.metersToDegrees(10000), box[2], 1e-6);
+        assertEquals(PointService.metersToDegrees(10000), box[3], 1e-6);
+
+        // At 60°, the longitude span is about twice the latitude span
+        box = GeoKernel.boundingBox(60, 10, 10000);
+        assertEquals(2, (box[3] - box[2]) / (box[1] - box[0]), 0.01);
+        // The box sides are tangent to the circle
+        final double latitude = Math.toDegrees(Math.asin(Math.sin(Math.toRadians(60)) / Math.cos(10000 / PointService.EARTH_RADIUS)));
+        assertEquals(10000, GeoKernel.distance(60, 10, latitude, box[3]), 1);
+
+        // Crossing the antimeridian
+        box = GeoKernel.boundingBox(0, 179.95, 10000);
+        assertEquals(true, box[2] > box[3]);
+        assertEquals(179.95 - PointService.metersToDegrees(10000), box[2], 1e-6);
+        assertEquals(-180 + PointService.metersToDegrees(10000) - 0.05, box[3], 1e-6);
+
+        // Containing a pole
+        box = GeoKernel.boundingBox(89.99, 0, 10000);
+        assertEquals(90, box[1], 0);
+        assertEquals(-180, box[2], 0);
+        assertEquals(180, box[3], 0);
+    }
+
+    /**
+     * Tests static method {@link GeoKernel#destination(double, double, double, double)}, including across the antimeridian.
+     */
+    @Test
+    public void test_destination() {
+        double[] destination = GeoKernel.destination(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, 37, 12000);
+        assertEquals(12000, GeoKernel.distance(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, destination[0], destination[1]), 12000 * ERROR_TOLERANCE);
+        assertEquals(37, GeoKernel.azimuth(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, destination[0], destination[1]), 360 * ERROR_TOLERANCE);
+        // Due north along a meridian
+        destination = GeoKernel.destination(0, 0, 0, PointService.degreesToMeters(1));
+        assertEquals(1, destination[0], ERROR_TOLERANCE);
+        assertEquals(0, destination[1], ERROR_TOLERANCE);
+        // Due east across the antimeridian
+        destination = GeoKernel.destination(0, 179.9, 90, PointService.degreesToMeters(0.2));
+        assertEquals(0, destination[0], ERROR_TOLERANCE);
+        assertEquals(-179.9, destination[1], ERROR_TOLERANCE);
+    }
+
+    /**
+     * Tests static method {@link GeoKernel#verticalAngle(int, int)}.
+     */
+    @Test
+    public void test_verticalAngle() {
+        assertEquals(90f, GeoKernel.verticalAngle(0, 0), 0);
+        assertEquals(90f, GeoKernel.verticalAngle(0, 10), 0);
+        assertEquals(-90f, GeoKernel.verticalAngle(0, -10), 0);
+        assertEquals(0f, GeoKernel.verticalAngle(100, 0), 0);
+        assertEquals(45f, GeoKernel.verticalAngle(100, 100), ERROR_TOLERANCE * 360);
+        assertEquals(-45f, GeoKernel.verticalAngle(100, -100), ERROR_TOLERANCE * 360);
+    }
+
+    /**
+     * Tests that {@link GeoKernel#evaluate(double, double, int)} with a precomputed observer gives the same results as the static methods.
+     */
+    @Test
+    public void test_evaluate() {
+        final GeoKernel geoKernel = new GeoKernel(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, DEVELOPERS_HOME_ALTITUDE);
+        final double[][] targets = new double[][] {
+                {45.2417, 5.7436, 1046},
+                {45.8326, 6.8652, 4808},
+                {0, 0, 0},
+                {-DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE + 10, 0}
+        };
+        for (double[] target : targets) {
+            geoKernel.evaluate(target[0], target[1], (int) target[2]);
+            final double distance = GeoKernel.distance(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, target[0], target[1]);
+            assertEquals(distance, geoKernel.getDistance(), 0.01);
+            assertEquals(GeoKernel.azimuth(DEVELOPERS_HOME_LATITUDE, DEVELOPERS_HOME_LONGITUDE, target[0], target[1]), geoKernel.getAzimuth(), 0.001);
+            assertEquals(GeoKernel.verticalAngle((int) distance, (int) target[2] - DEVELOPERS_HOME_ALTITUDE), geoKernel.getVerticalAngle(), 0.001);
+        }
+
+        // Mont Blanc, about 113 km away and 4588 m higher
+        geoKernel.evaluate(45.8326, 6.8652, 4808);
+        assertEquals(113100, geoKernel.getDistance(), ERROR_TOLERANCE * 113100);
+        assertEquals(2.32, geoKernel.getVerticalAngle(), 0.05);
+    }
+}
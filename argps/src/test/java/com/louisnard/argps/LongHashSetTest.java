@@ -0,0 +1,50 @@
+package com.louisnard.argps;
+
+import com.louisnard.argps.model.services.LongHashSet;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit testing for the {@link LongHashSet} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class LongHashSetTest {
+
+    /**
+     * Tests {@link LongHashSet#add(long)} and {@link LongHashSet#contains(long)}, including 0, negative values and the growth of the table.
+     */
+    @Test
+    public void test_addAndContains() {
+        final LongHashSet set = new LongHashSet();
+        assertEquals(false, set.contains(0));
+        assertEquals(true, set.add(0));
+        assertEquals(false, set.add(0));
+        assertEquals(true, set.contains(0));
+        assertEquals(true, set.add(-1));
+        assertEquals(true, set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+
+        // Many close values, such as neighbouring cells
+        for (long value = 1; value <= 10000; value++) {
+            assertEquals(true, set.add(value << 32 | value));
+        }
+        assertEquals(10003, set.size());
+        for (long value = 1; value <= 10000; value++) {
+            assertEquals(true, set.contains(value << 32 | value));
+            assertEquals(false, set.contains(value << 32 | (value + 1)));
+            assertEquals(false, set.add(value << 32 | value));
+        }
+        assertEquals(true, set.contains(-1));
+        assertEquals(true, set.contains(Long.MIN_VALUE));
+
+        // Clear
+        set.clear();
+        assertEquals(0, set.size());
+        assertEquals(false, set.contains(0));
+        assertEquals(false, set.contains(1L << 32 | 1));
+    }
+}
@@ -0,0 +1,81 @@
+package com.louisnard.argps;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import com.louisnard.argps.model.services.SortedIdsDiff;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit testing for the {@link SortedIdsDiff} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class SortedIdsDiffTest {
+
+    /**
+     * Tests that dispatching {@link SortedIdsDiff#calculateDiff(long[], long[])} updates to the old ids gives the new ids.
+     */
+    @Test
+    public void test_calculateDiff() {
+        assertDiff(new long[] {}, new long[] {}, 0);
+        assertDiff(new long[] {1, 2, 3}, new long[] {1, 2, 3}, 0);
+        assertDiff(new long[] {}, new long[] {1, 2, 3}, 1);
+        assertDiff(new long[] {1, 2, 3}, new long[] {}, 1);
+        assertDiff(new long[] {1, 2, 3, 4, 5}, new long[] {1, 4, 5}, 1);
+        assertDiff(new long[] {1, 4, 5}, new long[] {1, 2, 3, 4, 5}, 1);
+        assertDiff(new long[] {1, 3, 5, 7}, new long[] {2, 3, 6, 7, 8, 9}, 5);
+        assertDiff(new long[] {10, 20, 30}, new long[] {40, 50}, 2);
+    }
+
+    private static void assertDiff(long[] oldIds, long[] newIds, int expectedUpdates) {
+        final List<Long> list = new ArrayList<>();
+        for (long id : oldIds) {
+            list.add(id);
+        }
+        final List<Long> newList = new ArrayList<>();
+        for (long id : newIds) {
+            newList.add(id);
+        }
+        final int[] updates = new int[1];
+        final SortedIdsDiff diff = SortedIdsDiff.calculateDiff(oldIds, newIds);
+        assertEquals(expectedUpdates == 0, diff.isEmpty());
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                // Inserted items are read from the new list, right after the previous new item
+                final int newPosition = position == 0 ? 0 : newList.indexOf(list.get(position - 1)) + 1;
+                for (int i = 0; i < count; i++) {
+                    list.add(position + i, newList.get(newPosition + i));
+                }
+                updates[0]++;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.remove(position);
+                }
+                updates[0]++;
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                throw new AssertionError();
+            }
+        });
+        assertEquals(newList, list);
+        assertEquals(expectedUpdates, updates[0]);
+    }
+}
@@ -0,0 +1,70 @@
+package com.louisnard.argps;
+
+import com.louisnard.argps.model.services.SpatialCell;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit testing for the {@link SpatialCell} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class SpatialCellTest {
+
+    /**
+     * Tests static method {@link SpatialCell#cellId(double, double)}.
+     */
+    @Test
+    public void test_cellId() {
+        assertEquals(0, SpatialCell.cellId(-90, -180));
+        assertEquals((1L << (2 * SpatialCell.LEVELS)) - 1, SpatialCell.cellId(90, 180));
+        // Close points have the same cell id prefix
+        assertEquals(SpatialCell.cellId(45.1916626, 5.7385538) >> 20, SpatialCell.cellId(45.1916627, 5.7385539) >> 20);
+    }
+
+    /**
+     * Tests that {@link SpatialCell#coverBox(double, double, double, double)} ranges contain all the points of the box, and only a few ranges are needed.
+     */
+    @Test
+    public void test_coverBox() {
+        final Random random = new Random(42);
+        final double[][] boxes = new double[][] {
+                // Around Grenoble, 10 km
+                {45.1, 45.28, 5.61, 5.87},
+                // Around the equator and the Greenwich meridian
+                {-0.1, 0.1, -0.1, 0.1},
+                // Crossing the antimeridian
+                {-17.9, -17.7, 179.9, -179.9},
+                // Whole world
+                {-90, 90, -180, 180}
+        };
+        for (double[] box : boxes) {
+            final long[] ranges = SpatialCell.coverBox(box[0], box[1], box[2], box[3]);
+            assertTrue(ranges.length > 0 && ranges.length % 2 == 0);
+            assertTrue(ranges.length / 2 <= 2 * 16);
+            for (int i = 1; i < ranges.length; i++) {
+                assertTrue(ranges[i - 1] <= ranges[i]);
+            }
+            final double lonSpan = box[2] <= box[3] ? box[3] - box[2] : box[3] - box[2] + 360;
+            for (int i = 0; i < 1000; i++) {
+                final double latitude = box[0] + random.nextDouble() * (box[1] - box[0]);
+                double longitude = box[2] + random.nextDouble() * lonSpan;
+                if (longitude > 180) {
+                    longitude -= 360;
+                }
+                final long cellId = SpatialCell.cellId(latitude, longitude);
+                boolean covered = false;
+                for (int r = 0; r < ranges.length; r += 2) {
+                    covered |= cellId >= ranges[r] && cellId <= ranges[r + 1];
+                }
+                assertTrue(covered);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.louisnard.argps.model.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.louisnard.argps.model.services.GeoKernel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit testing for the {@link DuplicatePointFilter} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class DuplicatePointFilterTest {
+
+    private static final long LAYER_ID = 3;
+    private static final double TOLERANCE = 10;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = mock(SQLiteDatabase.class);
+        // No existing points by default
+        when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(mock(Cursor.class));
+    }
+
+    /**
+     * Tests {@link DuplicatePointFilter#isDuplicate(double, double)}: only the points strictly closer than the tolerance are duplicates, whatever the cells they fall into, including near the poles and across the antimeridian.
+     */
+    @Test
+    public void test_isDuplicate_tolerance() {
+        final DuplicatePointFilter filter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertFalse(filter.isDuplicate(45, 5));
+        assertTrue(filter.isDuplicate(45, 5));
+        assertTrue(filter.isDuplicate(destination(45, 5, 0, 9.5)[0], 5));
+        assertFalse(filter.isDuplicate(destination(45, 5, 180, 10.5)[0], 5));
+
+        // Neighbouring cells, but farther than the tolerance from each other
+        final DuplicatePointFilter neighboursFilter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertFalse(neighboursFilter.isDuplicate(10, 20));
+        for (int azimuth = 0; azimuth < 360; azimuth += 90) {
+            final double[] point = destination(10, 20, azimuth, 11);
+            assertFalse(neighboursFilter.isDuplicate(point[0], point[1]));
+        }
+
+        // Longitude cells narrower than the tolerance, away from the equator
+        final DuplicatePointFilter northFilter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertFalse(northFilter.isDuplicate(70, 20));
+        final double[] east = destination(70, 20, 90, 9.5);
+        assertTrue(northFilter.isDuplicate(east[0], east[1]));
+        final double[] west = destination(70, 20, 270, 10.5);
+        assertFalse(northFilter.isDuplicate(west[0], west[1]));
+
+        // Antimeridian
+        final DuplicatePointFilter antimeridianFilter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertFalse(antimeridianFilter.isDuplicate(0, 179.99997));
+        assertTrue(antimeridianFilter.isDuplicate(0, -179.99997));
+    }
+
+    /**
+     * Tests {@link DuplicatePointFilter#isDuplicate(double, double)} on many distinct points closer to each other than a cell, so that each one is compared exactly with all the points of its cell.
+     */
+    @Test
+    public void test_isDuplicate_manyPoints() {
+        final DuplicatePointFilter filter = new DuplicatePointFilter(mDb, LAYER_ID, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(filter.isDuplicate(45 + i * 1e-6, 5));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.isDuplicate(45 + i * 1e-6, 5));
+        }
+    }
+
+    /**
+     * Tests that the points are compared whatever their altitudes, and that the filter is not meant for a zero tolerance: the uniqueness constraint of the layer, which compares the altitudes, already skips the points at the same position.
+     */
+    @Test
+    public void test_isDuplicate_altitude() {
+        final DuplicatePointFilter filter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertFalse(filter.isDuplicate(45, 5));
+        assertTrue(filter.isDuplicate(45, 5));
+        try {
+            new DuplicatePointFilter(mDb, LAYER_ID, 0);
+            fail("A zero tolerance must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests that the existing points of the layer are loaded once per tile with a box query which does not depend on the cell ids, whose back-fill may be pending.
+     */
+    @Test
+    public void test_isDuplicate_seeding() {
+        final Cursor cursor = mock(Cursor.class);
+        when(cursor.moveToNext()).thenReturn(true, false);
+        when(cursor.getDouble(0)).thenReturn(45.0);
+        when(cursor.getDouble(1)).thenReturn(5.0);
+        final Cursor emptyCursor = mock(Cursor.class);
+        when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(cursor, emptyCursor);
+
+        final DuplicatePointFilter filter = new DuplicatePointFilter(mDb, LAYER_ID, TOLERANCE);
+        assertTrue(filter.isDuplicate(destination(45, 5, 0, 5)[0], 5));
+        assertFalse(filter.isDuplicate(destination(45, 5, 0, 20)[0], 5));
+        verify(mDb, times(1)).rawQuery(anyString(), any(String[].class));
+        verify(cursor).close();
+
+        // Another tile
+        assertFalse(filter.isDuplicate(46, 6));
+        final ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        final ArgumentCaptor<String[]> args = ArgumentCaptor.forClass(String[].class);
+        verify(mDb, times(2)).rawQuery(sql.capture(), args.capture());
+        assertFalse(sql.getValue().contains(ARDbContract.PointsColumns.COLUMN_CELL));
+        assertTrue(sql.getValue().contains(ARDbContract.PointsColumns.COLUMN_LAYER_ID + " = ?"));
+        assertEquals(String.valueOf(LAYER_ID), args.getValue()[0]);
+    }
+
+    private static double[] destination(double latitude, double longitude, double azimuth, double distance) {
+        final double[] destination = GeoKernel.destination(latitude, longitude, azimuth, distance);
+        assertEquals(distance, GeoKernel.distance(latitude, longitude, destination[0], destination[1]), 1e-6);
+        return destination;
+    }
+}
@@ -0,0 +1,85 @@
+package com.louisnard.argps.model.services;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit testing for the {@link ParallelGpxParser} class.
+ *
+ * @author Alexandre Louisnard
+ */
+
+public class ParallelGpxParserTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx version=\"1.1\" creator=\"test\">\n";
+    private static final String TRAILER = "<trk><name>Track</name></trk>\n</gpx>\n";
+    private static final String SELF_CLOSING_WAYPOINT = "<wpt lat=\"45.1\" lon=\"5.7\"/>\n";
+    private static final int WAYPOINTS_NUMBER = 1000;
+
+    /**
+     * Tests {@link ParallelGpxParser#findChunkBoundaries(ByteBuffer, int)} on self-closing waypoints only: every chunk is cut right after a self-closing waypoint, and the last chunk ends right after the last one.
+     */
+    @Test
+    public void test_findChunkBoundaries_selfClosingWaypoints() {
+        final StringBuilder gpx = new StringBuilder(HEADER);
+        for (int i = 0; i < WAYPOINTS_NUMBER; i++) {
+            gpx.append(SELF_CLOSING_WAYPOINT);
+        }
+        gpx.append(TRAILER);
+        final String text = gpx.toString();
+
+        final int[] boundaries = ParallelGpxParser.findChunkBoundaries(ByteBuffer.wrap(text.getBytes()), 4);
+        assertEquals(5, boundaries.length);
+        assertEquals(text.indexOf("<wpt"), boundaries[0]);
+        for (int i = 1; i < boundaries.length - 1; i++) {
+            assertTrue(text.startsWith("<wpt", boundaries[i]));
+            assertTrue(text.substring(0, boundaries[i]).endsWith("/>\n"));
+        }
+        assertEquals(text.lastIndexOf("/>") + 2, boundaries[boundaries.length - 1]);
+        assertEquals(WAYPOINTS_NUMBER, countWaypoints(text.substring(boundaries[0], boundaries[boundaries.length - 1])));
+    }
+
+    /**
+     * Tests {@link ParallelGpxParser#findChunkBoundaries(ByteBuffer, int)} when a self-closing waypoint follows the last "&lt;/wpt&gt;": it belongs to the last chunk.
+     */
+    @Test
+    public void test_findChunkBoundaries_trailingSelfClosingWaypoint() {
+        final StringBuilder gpx = new StringBuilder(HEADER);
+        for (int i = 0; i < WAYPOINTS_NUMBER; i++) {
+            gpx.append("<wpt lat=\"45.1\" lon=\"5.7\"><name>Point ").append(i).append("</name></wpt>\n");
+        }
+        gpx.append(SELF_CLOSING_WAYPOINT).append(TRAILER);
+        final String text = gpx.toString();
+
+        final int[] boundaries = ParallelGpxParser.findChunkBoundaries(ByteBuffer.wrap(text.getBytes()), 4);
+        assertEquals(text.lastIndexOf("/>") + 2, boundaries[boundaries.length - 1]);
+        assertEquals(WAYPOINTS_NUMBER + 1, countWaypoints(text.substring(boundaries[0], boundaries[boundaries.length - 1])));
+    }
+
+    /**
+     * Tests {@link ParallelGpxParser#findChunkBoundaries(ByteBuffer, int)} when the last waypoint start tag is never closed: the file is not split, so that the sequential parsing reports the error.
+     */
+    @Test
+    public void test_findChunkBoundaries_unclosedTrailingWaypoint() {
+        final StringBuilder gpx = new StringBuilder(HEADER);
+        for (int i = 0; i < WAYPOINTS_NUMBER; i++) {
+            gpx.append(SELF_CLOSING_WAYPOINT);
+        }
+        gpx.append("<wpt lat=\"45.1\" lon=\"5.7\">\n").append(TRAILER);
+
+        assertNull(ParallelGpxParser.findChunkBoundaries(ByteBuffer.wrap(gpx.toString().getBytes()), 4));
+    }
+
+    private static int countWaypoints(String text) {
+        int count = 0;
+        for (int i = text.indexOf("<wpt "); i != -1; i = text.indexOf("<wpt ", i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}